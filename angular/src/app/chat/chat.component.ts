@@ -3,7 +3,7 @@ import { CommonModule } from '@angular/common';
 import { FormsModule } from '@angular/forms';
 import { Subscription } from 'rxjs';
 import { AuthService, AuthUser } from '../auth/auth.service';
-import { ChatMessage, ChatService, ReservationItem, SupportAgent, ThreadItem, TypingEvent } from './chat.service';
+import { ChatMessage, ChatService, ReservationItem, SupportAgent, ThreadItem, ThreadUnread, TypingEvent } from './chat.service';
 
 @Component({
   selector: 'app-chat',
@@ -17,6 +17,7 @@ import { ChatMessage, ChatService, ReservationItem, SupportAgent, ThreadItem, Ty
 export class ChatComponent implements OnInit, OnDestroy {
   // on stocke les donnees affichees dans l UI
   messages: ChatMessage[] = [];
+  hasOlderMessages = false;
   content = '';
   threads: ThreadItem[] = [];
   selectedThread?: ThreadItem;
@@ -32,9 +33,12 @@ export class ChatComponent implements OnInit, OnDestroy {
   password = '123soleil';
   // on garde des subscriptions pour pouvoir se desabonner proprement
   private sub?: Subscription;
+  private olderSub?: Subscription;
   private threadSub?: Subscription;
   private typingSub?: Subscription;
   private authSub?: Subscription;
+  private unreadSub?: Subscription;
+  private markReadTimeoutId?: ReturnType<typeof setTimeout>;
   // on centralise les infos de frappe
   private typingUsers: Record<string, string> = {};
   private typingTimeoutId?: ReturnType<typeof setTimeout>;
@@ -45,6 +49,7 @@ export class ChatComponent implements OnInit, OnDestroy {
   ngOnInit(): void {
     // on s abonne aux flux de messages
     this.sub = this.chat.messages$.subscribe(m => (this.messages = m));
+    this.olderSub = this.chat.hasOlder$.subscribe(hasOlder => (this.hasOlderMessages = hasOlder));
     // on s abonne aux mises a jour de tickets
     this.threadSub = this.chat.threadUpdates$.subscribe(update => {
       if (!update || !this.user) return;
@@ -62,9 +67,10 @@ export class ChatComponent implements OnInit, OnDestroy {
         }
         return;
       }
-      // on met a jour la liste des tickets
+      // on met a jour la liste des tickets (en gardant le compteur de non lus)
       const existing = this.threads.find(t => t.id === update.id);
       if (existing) {
+        update = { ...update, unreadCount: update.unreadCount ?? existing.unreadCount };
         this.threads = this.threads.map(t => (t.id === update.id ? update : t));
       } else {
         this.threads = [update, ...this.threads];
@@ -78,6 +84,8 @@ export class ChatComponent implements OnInit, OnDestroy {
       }
       this.syncSelectionWithFilter();
     });
+    // on suit les compteurs de non lus
+    this.unreadSub = this.chat.unread$.subscribe(event => this.onUnread(event));
     // on ecoute les evenements de frappe
     this.typingSub = this.chat.typing$.subscribe(event => this.onTypingEvent(event));
     // on reagit aux changements de connexion
@@ -110,9 +118,15 @@ export class ChatComponent implements OnInit, OnDestroy {
   ngOnDestroy(): void {
     // on libere toutes les subscriptions et timers
     this.sub?.unsubscribe();
+    this.olderSub?.unsubscribe();
     this.threadSub?.unsubscribe();
     this.typingSub?.unsubscribe();
     this.authSub?.unsubscribe();
+    this.unreadSub?.unsubscribe();
+    if (this.markReadTimeoutId) {
+      clearTimeout(this.markReadTimeoutId);
+      this.markReadTimeoutId = undefined;
+    }
     if (this.typingTimeoutId) {
       clearTimeout(this.typingTimeoutId);
       this.typingTimeoutId = undefined;
@@ -143,6 +157,8 @@ export class ChatComponent implements OnInit, OnDestroy {
     this.chat.send(this.content, this.selectedThread.id);
     this.content = '';
     this.stopTyping();
+    // on compte son propre message comme lu
+    this.scheduleMarkRead(this.selectedThread.id);
   }
 
   clear(): void {
@@ -150,18 +166,58 @@ export class ChatComponent implements OnInit, OnDestroy {
     this.chat.clear();
   }
 
+  loadOlderMessages(): void {
+    // on remonte l historique page par page
+    if (!this.selectedThread) return;
+    this.chat.loadOlder(this.selectedThread.id).subscribe();
+  }
+
   selectThread(thread: ThreadItem): void {
     // on change de ticket selectionne
     if (this.selectedThread?.id && this.selectedThread.id !== thread.id) {
       this.stopTyping(this.selectedThread.id);
     }
     this.selectedThread = thread;
+    this.markRead(thread.id);
     this.chat.loadMessages(thread.id).subscribe();
     this.chat.subscribeToThread(thread.id);
     this.clearTypingUsers();
     this.selectedTransferUserId = '';
   }
 
+  private onUnread(event: ThreadUnread | null): void {
+    if (!event) return;
+    if (event.read) {
+      // on remet a zero (lecture depuis cet onglet ou un autre)
+      this.setUnread(event.threadId, () => 0);
+    } else if (this.selectedThread?.id === event.threadId) {
+      // on lit deja ce ticket : on avance le marqueur de lecture
+      this.scheduleMarkRead(event.threadId);
+    } else {
+      this.setUnread(event.threadId, count => count + event.unreadDelta);
+    }
+  }
+
+  private setUnread(threadId: string, next: (count: number) => number): void {
+    this.threads = this.threads.map(t => (t.id === threadId ? { ...t, unreadCount: next(t.unreadCount ?? 0) } : t));
+  }
+
+  private markRead(threadId: string): void {
+    this.setUnread(threadId, () => 0);
+    this.chat.markRead(threadId).subscribe({ error: () => {} });
+  }
+
+  private scheduleMarkRead(threadId: string): void {
+    // on regroupe les lectures quand les messages arrivent en rafale
+    if (this.markReadTimeoutId) return;
+    this.markReadTimeoutId = setTimeout(() => {
+      this.markReadTimeoutId = undefined;
+      if (this.selectedThread?.id === threadId) {
+        this.markRead(threadId);
+      }
+    }, 1000);
+  }
+
   createTicket(): void {
     // on cree un ticket en tant que client
     if (!this.user || this.user.role !== 'CLIENT') return;
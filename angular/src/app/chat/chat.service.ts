@@ -1,12 +1,15 @@
 import { Injectable } from '@angular/core';
 import { Client, IMessage, StompSubscription } from '@stomp/stompjs';
-import { BehaviorSubject, Observable, tap } from 'rxjs';
+import { BehaviorSubject, Observable, map, tap } from 'rxjs';
 import { HttpClient } from '@angular/common/http';
 import { AuthService } from '../auth/auth.service';
 import { environment } from '../../environments/environment';
 
 export interface ChatMessage {
   // on decrit le message affiche dans le chat
+  id?: string;
+  // position du message dans le ticket : un saut signale des messages manques
+  seq?: number;
   content: string;
   sentAt: string;
   threadId: string;
@@ -28,6 +31,15 @@ export interface ThreadItem {
   assignedSupportUserId?: string | null;
   assignedSupportName?: string | null;
   assignedSupportEmail?: string | null;
+  // on recoit le nombre de non lus avec la liste (null dans les mises a jour partagees)
+  unreadCount?: number | null;
+}
+
+export interface ThreadUnread {
+  // on decrit un nouveau message non lu ou une lecture du ticket
+  threadId: string;
+  unreadDelta: number;
+  read: boolean;
 }
 
 export interface ReservationItem {
@@ -56,26 +68,45 @@ export interface TypingEvent {
   typing: boolean;
 }
 
+export interface ChatRejection {
+  // on decrit un message refuse par le serveur (ticket ferme, non assigne...)
+  seq: number;
+  at: string;
+  frame: string;
+  reason: string;
+  threadId?: string | null;
+}
+
 @Injectable({ providedIn: 'root' })
 export class ChatService {
   // on garde un client STOMP pour la websocket
   private client?: Client;
   private subscription?: StompSubscription;
   private threadSubscription?: StompSubscription;
+  private userThreadSubscription?: StompSubscription;
   private typingSubscription?: StompSubscription;
+  private errorSubscription?: StompSubscription;
   private activeThreadId?: string;
   private wantThreadUpdates = false;
   private threadUpdatesTopic?: string;
+  private userThreadsTopic?: string;
   // on centralise la base URL pour l API REST
   private readonly apiBase = environment.apiBase;
 
   // on expose les flux de messages et de mises a jour
   private messagesSubject = new BehaviorSubject<ChatMessage[]>([]);
   messages$ = this.messagesSubject.asObservable();
+  // on indique s il reste des messages plus anciens que ceux affiches
+  private hasOlderSubject = new BehaviorSubject<boolean>(false);
+  hasOlder$ = this.hasOlderSubject.asObservable();
   private threadUpdatesSubject = new BehaviorSubject<ThreadItem | null>(null);
   threadUpdates$ = this.threadUpdatesSubject.asObservable();
+  private unreadSubject = new BehaviorSubject<ThreadUnread | null>(null);
+  unread$ = this.unreadSubject.asObservable();
   private typingSubject = new BehaviorSubject<TypingEvent | null>(null);
   typing$ = this.typingSubject.asObservable();
+  private rejectionsSubject = new BehaviorSubject<ChatRejection | null>(null);
+  rejections$ = this.rejectionsSubject.asObservable();
 
   constructor(private http: HttpClient, private auth: AuthService) {}
 
@@ -90,6 +121,10 @@ export class ChatService {
       reconnectDelay: 3000,
       connectHeaders: { Authorization: `Bearer ${token}` },
       onConnect: () => {
+        // on ecoute les refus envoyes a cette session
+        this.errorSubscription = this.client?.subscribe('/user/queue/errors', (msg: IMessage) => {
+          this.rejectionsSubject.next(JSON.parse(msg.body) as ChatRejection);
+        });
         // on reprend les abonnements si besoin
         if (this.activeThreadId) {
           this.subscribeToThread(this.activeThreadId);
@@ -115,10 +150,15 @@ export class ChatService {
     this.subscription = undefined;
     this.threadSubscription?.unsubscribe();
     this.threadSubscription = undefined;
+    this.userThreadSubscription?.unsubscribe();
+    this.userThreadSubscription = undefined;
     this.typingSubscription?.unsubscribe();
     this.typingSubscription = undefined;
+    this.errorSubscription?.unsubscribe();
+    this.errorSubscription = undefined;
     this.wantThreadUpdates = false;
     this.threadUpdatesTopic = undefined;
+    this.userThreadsTopic = undefined;
   }
 
   subscribeToThread(threadId: string): void {
@@ -126,11 +166,30 @@ export class ChatService {
     this.activeThreadId = threadId;
     if (!this.client?.connected) return;
     this.subscription?.unsubscribe();
-    this.messagesSubject.next([]);
+    // on garde les messages deja affiches si on se reabonne au meme ticket (reconnexion)
+    const resuming = this.messagesSubject.value.some(message => message.threadId === threadId);
+    if (!resuming) {
+      this.messagesSubject.next([]);
+    }
+    // en reprise, le serveur renvoie d abord les messages manques apres last-seq
+    const headers: Record<string, string> = {};
+    const resumeFrom = this.lastSeq(threadId);
+    if (resuming && resumeFrom > 0) {
+      headers['last-seq'] = String(resumeFrom);
+    }
     this.subscription = this.client.subscribe(`/topic/threads/${threadId}`, (msg: IMessage) => {
       const body = JSON.parse(msg.body) as ChatMessage;
-      this.messagesSubject.next([...this.messagesSubject.value, body]);
-    });
+      const last = this.lastSeq(threadId);
+      if (body.seq != null && last > 0 && body.seq > last + 1) {
+        // on a rate des messages : on ne recharge que le trou
+        this.loadAfterSeq(threadId, last);
+      }
+      this.mergeMessages(threadId, [body]);
+      if (msg.headers['replay-more'] === 'true' && body.seq != null) {
+        // reprise tronquee : on charge la suite par l API
+        this.loadAfterSeq(threadId, body.seq);
+      }
+    }, headers);
     this.subscribeToTyping(threadId);
   }
 
@@ -140,16 +199,31 @@ export class ChatService {
     if (!this.client?.connected) return;
     if (!this.threadUpdatesTopic) return;
     this.threadSubscription?.unsubscribe();
-    this.threadSubscription = this.client.subscribe(this.threadUpdatesTopic, (msg: IMessage) => {
-      const body = JSON.parse(msg.body) as ThreadItem;
-      this.threadUpdatesSubject.next(body);
-    });
+    this.threadSubscription = this.client.subscribe(this.threadUpdatesTopic, (msg: IMessage) => this.onThreadUpdate(msg));
+    // on ecoute aussi le topic personnel du support (non lus des tickets assignes)
+    this.userThreadSubscription?.unsubscribe();
+    this.userThreadSubscription = undefined;
+    if (this.userThreadsTopic && this.userThreadsTopic !== this.threadUpdatesTopic) {
+      this.userThreadSubscription = this.client.subscribe(this.userThreadsTopic, (msg: IMessage) => this.onThreadUpdate(msg));
+    }
+  }
+
+  private onThreadUpdate(msg: IMessage): void {
+    // on distingue les compteurs de non lus des tickets complets
+    const body = JSON.parse(msg.body);
+    if ('threadId' in body) {
+      this.unreadSubject.next(body as ThreadUnread);
+    } else {
+      this.threadUpdatesSubject.next(body as ThreadItem);
+    }
   }
 
   setThreadUpdatesTopic(role: 'CLIENT' | 'SUPPORT', userId?: string): void {
     // on choisit le bon topic selon le role
+    this.userThreadsTopic = userId ? `/topic/users/${userId}/threads` : undefined;
     if (role === 'SUPPORT') {
-      this.threadUpdatesTopic = '/topic/threads';
+      // on ne recoit que la file des tickets non assignes, les siens arrivent sur le topic personnel
+      this.threadUpdatesTopic = '/topic/support/unassigned';
     } else if (role === 'CLIENT' && userId) {
       this.threadUpdatesTopic = `/topic/users/${userId}/threads`;
     } else {
@@ -157,9 +231,17 @@ export class ChatService {
     }
   }
 
-  listThreads(): Observable<ThreadItem[]> {
-    // on charge la liste des tickets
-    return this.http.get<ThreadItem[]>(`${this.apiBase}/threads`);
+  listThreads(before?: string, status?: string): Observable<ThreadItem[]> {
+    // on charge la liste des tickets (page la plus recente, puis avant le ticket "before")
+    const params: Record<string, string> = {};
+    if (before) params['before'] = before;
+    if (status) params['status'] = status;
+    return this.http.get<ThreadItem[]>(`${this.apiBase}/threads`, { params });
+  }
+
+  markRead(threadId: string): Observable<void> {
+    // on marque le ticket comme lu jusqu au dernier message
+    return this.http.post<void>(`${this.apiBase}/threads/${threadId}/read`, {});
   }
 
   listReservations(): Observable<ReservationItem[]> {
@@ -194,9 +276,70 @@ export class ChatService {
   }
 
   loadMessages(threadId: string): Observable<ChatMessage[]> {
-    // on charge l historique des messages
-    return this.http.get<ChatMessage[]>(`${this.apiBase}/threads/${threadId}/messages`)
-      .pipe(tap(messages => this.messagesSubject.next(messages)));
+    // on charge la page la plus recente de l historique
+    this.hasOlderSubject.next(false);
+    return this.loadPage(threadId, {});
+  }
+
+  loadOlder(threadId: string): Observable<ChatMessage[]> {
+    // on charge la page qui precede le plus ancien message affiche (tries par seq)
+    const oldest = this.messagesSubject.value.find(message => message.threadId === threadId && message.id);
+    if (!oldest?.id) return this.loadMessages(threadId);
+    return this.loadPage(threadId, { before: oldest.id });
+  }
+
+  private loadPage(threadId: string, params: Record<string, string>): Observable<ChatMessage[]> {
+    // X-Has-More dit s il existe des messages plus anciens que cette page
+    return this.http.get<ChatMessage[]>(`${this.apiBase}/threads/${threadId}/messages`, { params, observe: 'response' })
+      .pipe(
+        tap(response => {
+          if (!this.activeThreadId || this.activeThreadId === threadId) {
+            this.hasOlderSubject.next(response.headers.get('X-Has-More') === 'true');
+          }
+        }),
+        map(response => response.body ?? []),
+        tap(messages => this.mergeMessages(threadId, messages))
+      );
+  }
+
+  private loadAfterSeq(threadId: string, afterSeq: number): void {
+    // on charge les messages posterieurs au dernier seq connu, page par page
+    if (afterSeq <= 0) return;
+    this.http.get<ChatMessage[]>(`${this.apiBase}/threads/${threadId}/messages`, {
+      params: { afterSeq: String(afterSeq) },
+      observe: 'response'
+    }).subscribe(response => {
+      const messages = response.body ?? [];
+      this.mergeMessages(threadId, messages);
+      if (response.headers.get('X-Has-More') === 'true' && messages.length > 0) {
+        this.loadAfterSeq(threadId, messages[messages.length - 1].seq ?? 0);
+      }
+    });
+  }
+
+  private lastSeq(threadId: string): number {
+    // on retient le plus grand seq recu pour ce ticket
+    return this.messagesSubject.value
+      .filter(message => message.threadId === threadId)
+      .reduce((max, message) => Math.max(max, message.seq ?? 0), 0);
+  }
+
+  private mergeMessages(threadId: string, incoming: ChatMessage[]): void {
+    // on fusionne sans doublon (un message peut arriver par la websocket et par l API)
+    if (this.activeThreadId && this.activeThreadId !== threadId) return;
+    const byId = new Map<string, ChatMessage>();
+    const withoutId: ChatMessage[] = [];
+    for (const message of [...this.messagesSubject.value, ...incoming]) {
+      if (message.threadId !== threadId) continue;
+      if (message.id) {
+        byId.set(message.id, message);
+      } else {
+        withoutId.push(message);
+      }
+    }
+    const merged = [...byId.values(), ...withoutId];
+    merged.sort((a, b) => (a.seq ?? Number.MAX_SAFE_INTEGER) - (b.seq ?? Number.MAX_SAFE_INTEGER));
+    this.messagesSubject.next(merged);
   }
 
   send(content: string, threadId: string): void {
@@ -222,6 +365,7 @@ export class ChatService {
   clear(): void {
     // on vide les messages locaux
     this.messagesSubject.next([]);
+    this.hasOlderSubject.next(false);
   }
 
   private subscribeToTyping(threadId: string): void {
@@ -181,6 +181,8 @@ DELIMITER ;
 CREATE UNIQUE INDEX uq_payments_stripe_pi ON payments (stripe_payment_intent_id);
 
 -- ====== SUPPORT THREADS ======
+-- ids generes par l'application (UUIDv7 par defaut, chat.ids.strategy) ;
+-- migrations/005_uuid_storage.sql les passe sur 16 octets (type UUID)
 CREATE TABLE IF NOT EXISTS support_threads (
   id                 CHAR(36) NOT NULL,
   created_at         TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
@@ -191,8 +193,18 @@ CREATE TABLE IF NOT EXISTS support_threads (
   reservation_id     CHAR(36) NULL,
   assigned_support_user_id CHAR(36) NULL,
 
+  -- activite, mise a jour a chaque message insere (cf. SupportThreadRepository.RECORD_MESSAGES)
+  first_message_at    TIMESTAMP(3) NULL,
+  last_message_at     TIMESTAMP(3) NULL,
+  message_count       INT NOT NULL DEFAULT 0,
+  last_sender_user_id CHAR(36) NULL,
+
   PRIMARY KEY (id),
-  KEY idx_threads_created_by (created_by_user_id),
+  -- listes de tickets paginees par (created_at, id) decroissant
+  KEY idx_threads_created_by (created_by_user_id, created_at, id),
+  KEY idx_threads_created (created_at, id),
+  -- file du support : tickets ayant au moins un message, par derniere activite
+  KEY idx_threads_activity (last_message_at, id),
   KEY idx_threads_reservation (reservation_id),
   KEY idx_threads_assigned (assigned_support_user_id),
 
@@ -223,6 +235,8 @@ DELIMITER ;
 CREATE TABLE IF NOT EXISTS support_messages (
   id             CHAR(36) NOT NULL,
   sent_at        TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  -- position du message dans son ticket (1, 2, 3...), attribuee par l'application
+  seq            BIGINT NOT NULL,
   content        TEXT NOT NULL,
 
   thread_id      CHAR(36) NOT NULL,
@@ -230,6 +244,7 @@ CREATE TABLE IF NOT EXISTS support_messages (
 
   PRIMARY KEY (id),
   KEY idx_msg_thread_sent (thread_id, sent_at),
+  UNIQUE KEY uq_msg_thread_seq (thread_id, seq),
   KEY idx_msg_sender (sender_user_id),
 
   CONSTRAINT fk_msg_thread
@@ -252,6 +267,26 @@ BEGIN
 END//
 DELIMITER ;
 
+-- ====== READ WATERMARKS ======
+-- une ligne par (utilisateur, ticket) : nombre de messages du ticket au moment
+-- de la derniere lecture ; non lus = support_threads.message_count - read_count
+CREATE TABLE IF NOT EXISTS support_read_watermarks (
+  user_id    CHAR(36) NOT NULL,
+  thread_id  CHAR(36) NOT NULL,
+  read_count INT NOT NULL,
+  read_at    TIMESTAMP(3) NOT NULL,
+
+  PRIMARY KEY (user_id, thread_id),
+  KEY idx_watermarks_thread (thread_id),
+
+  CONSTRAINT fk_watermarks_user
+    FOREIGN KEY (user_id) REFERENCES users(id)
+    ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT fk_watermarks_thread
+    FOREIGN KEY (thread_id) REFERENCES support_threads(id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 -- ====== SEED (POC CHAT) ======
 -- Two demo users + one support thread to test WebSocket persistence.
 INSERT IGNORE INTO users (id, email, password_hash, first_name, last_name, role)
@@ -296,11 +331,33 @@ VALUES
   ('33333333-3333-3333-3333-333333333333', 'Vehicle change request', 'OPEN', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa', 'dddddddd-0000-0000-0000-000000000001'),
   ('44444444-4444-4444-4444-444444444444', 'Return time update', 'OPEN', 'cccccccc-cccc-cccc-cccc-cccccccccccc', 'dddddddd-0000-0000-0000-000000000002');
 
-INSERT IGNORE INTO support_messages (id, sent_at, content, thread_id, sender_user_id)
+INSERT IGNORE INTO support_messages (id, seq, sent_at, content, thread_id, sender_user_id)
 VALUES
-  ('44444444-4444-4444-4444-444444444444', DATE_SUB(NOW(3), INTERVAL 2 HOUR), 'Bonjour, ma prise en charge a ete retardee.', '11111111-1111-1111-1111-111111111111', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa'),
-  ('55555555-5555-5555-5555-555555555555', DATE_SUB(NOW(3), INTERVAL 90 MINUTE), 'Merci pour le signalement, nous verifions avec l agence.', '11111111-1111-1111-1111-111111111111', 'bbbbbbbb-bbbb-bbbb-bbbb-bbbbbbbbbbbb'),
-  ('66666666-6666-6666-6666-666666666666', DATE_SUB(NOW(3), INTERVAL 45 MINUTE), 'Une mise a jour ?', '11111111-1111-1111-1111-111111111111', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa'),
-  ('77777777-7777-7777-7777-777777777777', DATE_SUB(NOW(3), INTERVAL 3 HOUR), 'J ai une question sur ma facture.', '22222222-2222-2222-2222-222222222222', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa'),
-  ('88888888-8888-8888-8888-888888888888', DATE_SUB(NOW(3), INTERVAL 2 HOUR), 'Nous vous enverrons la facture detaillee par email.', '22222222-2222-2222-2222-222222222222', 'bbbbbbbb-bbbb-bbbb-bbbb-bbbbbbbbbbbb'),
-  ('99999999-9999-9999-9999-999999999999', DATE_SUB(NOW(3), INTERVAL 30 MINUTE), 'Puis-je changer la categorie du vehicule ?', '33333333-3333-3333-3333-333333333333', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa');
+  ('44444444-4444-4444-4444-444444444444', 1, DATE_SUB(NOW(3), INTERVAL 2 HOUR), 'Bonjour, ma prise en charge a ete retardee.', '11111111-1111-1111-1111-111111111111', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa'),
+  ('55555555-5555-5555-5555-555555555555', 2, DATE_SUB(NOW(3), INTERVAL 90 MINUTE), 'Merci pour le signalement, nous verifions avec l agence.', '11111111-1111-1111-1111-111111111111', 'bbbbbbbb-bbbb-bbbb-bbbb-bbbbbbbbbbbb'),
+  ('66666666-6666-6666-6666-666666666666', 3, DATE_SUB(NOW(3), INTERVAL 45 MINUTE), 'Une mise a jour ?', '11111111-1111-1111-1111-111111111111', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa'),
+  ('77777777-7777-7777-7777-777777777777', 1, DATE_SUB(NOW(3), INTERVAL 3 HOUR), 'J ai une question sur ma facture.', '22222222-2222-2222-2222-222222222222', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa'),
+  ('88888888-8888-8888-8888-888888888888', 2, DATE_SUB(NOW(3), INTERVAL 2 HOUR), 'Nous vous enverrons la facture detaillee par email.', '22222222-2222-2222-2222-222222222222', 'bbbbbbbb-bbbb-bbbb-bbbb-bbbbbbbbbbbb'),
+  ('99999999-9999-9999-9999-999999999999', 1, DATE_SUB(NOW(3), INTERVAL 30 MINUTE), 'Puis-je changer la categorie du vehicule ?', '33333333-3333-3333-3333-333333333333', 'aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa');
+
+-- Activite des tickets de demo (meme reprise que migrations/002_thread_activity.sql) :
+-- sans elle, la file du support ignore les tickets ayant des messages.
+UPDATE support_threads t
+JOIN (
+  SELECT thread_id, MIN(sent_at) AS first_at, MAX(sent_at) AS last_at, COUNT(*) AS cnt
+  FROM support_messages
+  GROUP BY thread_id
+) a ON a.thread_id = t.id
+SET t.first_message_at = a.first_at,
+    t.last_message_at = a.last_at,
+    t.message_count = a.cnt;
+
+UPDATE support_threads t
+SET t.last_sender_user_id = (
+  SELECT m.sender_user_id
+  FROM support_messages m
+  WHERE m.thread_id = t.id
+  ORDER BY m.sent_at DESC, m.id DESC
+  LIMIT 1
+)
+WHERE t.last_message_at IS NOT NULL;
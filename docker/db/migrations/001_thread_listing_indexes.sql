@@ -0,0 +1,6 @@
+-- Listes de tickets (GET /api/threads) : pagination keyset sur (created_at, id)
+-- par client, et pour le support sur l'ensemble des tickets.
+ALTER TABLE support_threads
+  DROP INDEX idx_threads_created_by,
+  ADD INDEX idx_threads_created_by (created_by_user_id, created_at, id),
+  ADD INDEX idx_threads_created (created_at, id);
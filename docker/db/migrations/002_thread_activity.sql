@@ -0,0 +1,30 @@
+-- Activite des tickets, maintenue a chaque insertion de message : remplace le
+-- "exists (select ... from support_messages)" de la file du support et permet
+-- le tri par derniere activite (GET /api/threads?sort=activity).
+ALTER TABLE support_threads
+  ADD COLUMN first_message_at    TIMESTAMP(3) NULL,
+  ADD COLUMN last_message_at     TIMESTAMP(3) NULL,
+  ADD COLUMN message_count       INT NOT NULL DEFAULT 0,
+  ADD COLUMN last_sender_user_id CHAR(36) NULL,
+  ADD INDEX idx_threads_activity (last_message_at, id);
+
+-- Reprise des tickets existants (a lancer application arretee).
+UPDATE support_threads t
+JOIN (
+  SELECT thread_id, MIN(sent_at) AS first_at, MAX(sent_at) AS last_at, COUNT(*) AS cnt
+  FROM support_messages
+  GROUP BY thread_id
+) a ON a.thread_id = t.id
+SET t.first_message_at = a.first_at,
+    t.last_message_at = a.last_at,
+    t.message_count = a.cnt;
+
+UPDATE support_threads t
+SET t.last_sender_user_id = (
+  SELECT m.sender_user_id
+  FROM support_messages m
+  WHERE m.thread_id = t.id
+  ORDER BY m.sent_at DESC, m.id DESC
+  LIMIT 1
+)
+WHERE t.last_message_at IS NOT NULL;
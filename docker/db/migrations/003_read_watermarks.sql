@@ -0,0 +1,19 @@
+-- Compteurs de non lus : une ligne par (utilisateur, ticket) avec le nombre de
+-- messages du ticket lors de la derniere lecture (POST /api/threads/{id}/read).
+-- Necessite 002_thread_activity.sql (support_threads.message_count).
+CREATE TABLE IF NOT EXISTS support_read_watermarks (
+  user_id    CHAR(36) NOT NULL,
+  thread_id  CHAR(36) NOT NULL,
+  read_count INT NOT NULL,
+  read_at    TIMESTAMP(3) NOT NULL,
+
+  PRIMARY KEY (user_id, thread_id),
+  KEY idx_watermarks_thread (thread_id),
+
+  CONSTRAINT fk_watermarks_user
+    FOREIGN KEY (user_id) REFERENCES users(id)
+    ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT fk_watermarks_thread
+    FOREIGN KEY (thread_id) REFERENCES support_threads(id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
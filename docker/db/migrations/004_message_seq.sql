@@ -0,0 +1,17 @@
+-- Numero de sequence par ticket : permet au client de reperer un trou apres une
+-- reconnexion et de ne recharger que la suite (GET .../messages?afterSeq=N).
+-- L'index unique rejette un numero deja pris par un autre noeud.
+ALTER TABLE support_messages
+  ADD COLUMN seq BIGINT NULL AFTER sent_at;
+
+-- Reprise des messages existants, dans l'ordre d'envoi (a lancer application arretee).
+UPDATE support_messages m
+JOIN (
+  SELECT id, ROW_NUMBER() OVER (PARTITION BY thread_id ORDER BY sent_at, id) AS rn
+  FROM support_messages
+) n ON n.id = m.id
+SET m.seq = n.rn;
+
+ALTER TABLE support_messages
+  MODIFY COLUMN seq BIGINT NOT NULL,
+  ADD UNIQUE INDEX uq_msg_thread_seq (thread_id, seq);
@@ -0,0 +1,51 @@
+-- Optionnel : stockage des identifiants de tickets et de messages sur 16 octets
+-- (type UUID de MariaDB >= 10.7, BINARY(16) en interne) au lieu de CHAR(36) en
+-- utf8mb4. L'application ne change pas : le type UUID se lit et s'ecrit sous sa
+-- forme texte. Les UUIDv7 (chat.ids.strategy=time-ordered) y sont ranges dans
+-- l'ordre d'emission, les UUID() des triggers (v1) restent a part.
+-- A lancer application arretee ; les cles etrangeres sont recreees a l'identique.
+ALTER TABLE support_messages DROP FOREIGN KEY fk_msg_thread;
+ALTER TABLE support_read_watermarks DROP FOREIGN KEY fk_watermarks_thread;
+
+ALTER TABLE support_threads
+  MODIFY COLUMN id UUID NOT NULL;
+
+ALTER TABLE support_messages
+  MODIFY COLUMN id UUID NOT NULL,
+  MODIFY COLUMN thread_id UUID NOT NULL;
+
+ALTER TABLE support_read_watermarks
+  MODIFY COLUMN thread_id UUID NOT NULL;
+
+ALTER TABLE support_messages
+  ADD CONSTRAINT fk_msg_thread
+    FOREIGN KEY (thread_id) REFERENCES support_threads(id)
+    ON DELETE CASCADE ON UPDATE CASCADE;
+ALTER TABLE support_read_watermarks
+  ADD CONSTRAINT fk_watermarks_thread
+    FOREIGN KEY (thread_id) REFERENCES support_threads(id)
+    ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- Une chaine vide n'est pas un UUID valide : les triggers ne testent plus que NULL.
+DROP TRIGGER IF EXISTS trg_threads_uuid;
+DROP TRIGGER IF EXISTS trg_messages_uuid;
+
+DELIMITER //
+CREATE TRIGGER trg_threads_uuid
+BEFORE INSERT ON support_threads
+FOR EACH ROW
+BEGIN
+  IF NEW.id IS NULL THEN
+    SET NEW.id = UUID();
+  END IF;
+END//
+
+CREATE TRIGGER trg_messages_uuid
+BEFORE INSERT ON support_messages
+FOR EACH ROW
+BEGIN
+  IF NEW.id IS NULL THEN
+    SET NEW.id = UUID();
+  END IF;
+END//
+DELIMITER ;
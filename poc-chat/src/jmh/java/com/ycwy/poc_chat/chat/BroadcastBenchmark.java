@@ -0,0 +1,290 @@
+package com.ycwy.poc_chat.chat;
+
+import com.ycwy.poc_chat.config.FanOutStompEncoder;
+import com.ycwy.poc_chat.support.dto.ThreadDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.converter.JacksonJsonMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// One broadcast through the simple broker and the STOMP handler to N sessions
+// subscribed to the same topic, everything on the calling thread. The sessions
+// only count the bytes they are handed, so the numbers cover conversion, broker
+// fan-out and STOMP encoding, not the socket. Run with the GC profiler to get
+// allocation per broadcast (gc.alloc.rate.norm):
+//   ./mvnw -Pbenchmark verify "-Djmh.args=BroadcastBenchmark -prof gc"
+//
+// broadcast / convertAndSend: one destination, BroadcastPublisher against the
+// plain template. threadUpdate*: a ThreadDto sent to the four destinations of a
+// transfer (creator, unassigned queue, new and previous assignee), encoded once
+// against once per destination. Past the conversion, the cost grows with the
+// subscriber count: each session gets its own frame (subscription and
+// message-id headers), copied once more into a String for the text frame.
+// encoder=default runs Spring's StompEncoder instead of FanOutStompEncoder.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    private static final String TOPIC = "/topic/threads/6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86";
+
+    private static final List<String> THREAD_UPDATE_DESTINATIONS = List.of(
+            "/topic/users/9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b/threads",
+            "/topic/support/unassigned",
+            "/topic/users/1a2b3c4d-5e6f-4a7b-8c9d-0e1f2a3b4c5d/threads",
+            "/topic/users/7f6e5d4c-3b2a-4190-8f7e-6d5c4b3a2910/threads"
+    );
+
+    @Param({"1", "100", "1000"})
+    public int subscribers;
+
+    @Param({"message", "thread", "typing"})
+    public String payloadType;
+
+    @Param({"fan-out", "default"})
+    public String encoder;
+
+    private SimpleBrokerMessageHandler broker;
+    private SubProtocolWebSocketHandler webSocketHandler;
+    private SimpMessagingTemplate template;
+    private BroadcastPublisher publisher;
+    private Object payload;
+    private ThreadDto threadDto;
+    private final List<CountingSession> sessions = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // No executors: every send runs to completion on the benchmark thread.
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        broker = new SimpleBrokerMessageHandler(clientInbound, clientOutbound, brokerChannel, List.of("/topic"));
+        broker.start();
+        webSocketHandler = new SubProtocolWebSocketHandler(clientInbound, clientOutbound);
+        StompSubProtocolHandler stompHandler = new StompSubProtocolHandler();
+        if ("fan-out".equals(encoder)) {
+            stompHandler.setEncoder(new FanOutStompEncoder(4096));
+        }
+        webSocketHandler.setDefaultProtocolHandler(stompHandler);
+        webSocketHandler.start();
+        template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new JacksonJsonMessageConverter());
+        publisher = new BroadcastPublisher(template);
+
+        for (int i = 0; i < subscribers; i++) {
+            CountingSession session = new CountingSession("session-" + i);
+            webSocketHandler.afterConnectionEstablished(session);
+            webSocketHandler.handleMessage(session, new TextMessage("CONNECT\naccept-version:1.2\nhost:localhost\n\n\0"));
+            subscribe(session, "sub-0", TOPIC);
+            // The thread update destinations are each followed by one of the sessions.
+            if (i < THREAD_UPDATE_DESTINATIONS.size()) {
+                subscribe(session, "sub-1", THREAD_UPDATE_DESTINATIONS.get(i));
+            }
+            sessions.add(session);
+        }
+
+        Instant now = Instant.now();
+        threadDto = new ThreadDto(
+                "6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86",
+                "Reservation en double",
+                "ASSIGNED",
+                now,
+                "9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b",
+                "Jeanne Martin",
+                "jeanne.martin@example.com",
+                "2f3e4d5c-6b7a-4980-a1b2-c3d4e5f60718",
+                "1a2b3c4d-5e6f-4a7b-8c9d-0e1f2a3b4c5d",
+                "Paul Durand",
+                "paul.durand@example.com",
+                2L
+        );
+        payload = switch (payloadType) {
+            case "message" -> new ChatMessage(
+                    "0b1f4c9e-5d7a-4e8b-9c2d-3f6a1b8e7d40",
+                    42L,
+                    "Bonjour, ma reservation de vendredi apparait deux fois dans mon espace client.",
+                    now,
+                    "6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86",
+                    "9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b",
+                    "Jeanne Martin",
+                    "jeanne.martin@example.com"
+            );
+            case "thread" -> threadDto;
+            case "typing" -> new TypingEvent(
+                    "6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86",
+                    "9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b",
+                    "Jeanne Martin",
+                    "jeanne.martin@example.com",
+                    true
+            );
+            default -> throw new IllegalArgumentException("Unknown payloadType: " + payloadType);
+        };
+    }
+
+    private void subscribe(CountingSession session, String id, String destination) throws Exception {
+        webSocketHandler.handleMessage(session, new TextMessage(
+                "SUBSCRIBE\nid:" + id + "\ndestination:" + destination + "\n\n\0"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (CountingSession session : sessions) {
+            webSocketHandler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        }
+        webSocketHandler.stop();
+        broker.stop();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        publisher.publish(payload, TOPIC);
+        return sessions.getLast().bytes;
+    }
+
+    @Benchmark
+    public long convertAndSend() {
+        template.convertAndSend(TOPIC, payload);
+        return sessions.getLast().bytes;
+    }
+
+    @Benchmark
+    public long threadUpdateEncodedOnce() {
+        publisher.publish(threadDto, THREAD_UPDATE_DESTINATIONS);
+        return sessions.getFirst().bytes;
+    }
+
+    @Benchmark
+    public long threadUpdateConvertedPerDestination() {
+        for (String destination : THREAD_UPDATE_DESTINATIONS) {
+            template.convertAndSend(destination, threadDto);
+        }
+        return sessions.getFirst().bytes;
+    }
+
+    // Stands in for a WebSocket connection: keeps the frame sizes, drops the frames.
+    private static final class CountingSession implements WebSocketSession {
+
+        private final String id;
+        private final Map<String, Object> attributes = new HashMap<>();
+        private long bytes;
+
+        CountingSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            bytes += message.getPayloadLength();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return URI.create("ws://localhost/ws-chat");
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return "v12.stomp";
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 65536;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 65536;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.ycwy.poc_chat.chat;
+
+import com.ycwy.poc_chat.BenchmarkApplication;
+import com.ycwy.poc_chat.security.JwtService;
+import com.ycwy.poc_chat.support.SupportThread;
+import com.ycwy.poc_chat.support.SupportThreadRepository;
+import com.ycwy.poc_chat.support.ThreadState;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.dto.ThreadDto;
+import com.ycwy.poc_chat.user.User;
+import com.ycwy.poc_chat.user.UserRepository;
+import com.ycwy.poc_chat.user.UserSummary;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// ChatController hot paths inside the running application (H2 in memory):
+// the display-name / ThreadDto mapping and a full chat.send.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatHotPathBenchmark {
+
+    @Param({"sync", "write-behind"})
+    public String persistenceMode;
+
+    private ConfigurableApplicationContext context;
+    private ChatController chatController;
+    private ThreadStateCache threadStateCache;
+    private User client;
+    private String threadId;
+    private UsernamePasswordAuthenticationToken principal;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkApplication.start("--chat.persistence.mode=" + persistenceMode);
+        chatController = context.getBean(ChatController.class);
+        threadStateCache = context.getBean(ThreadStateCache.class);
+
+        client = user("CLIENT", "Jeanne", "Martin");
+        User support = user("SUPPORT", "Paul", "Durand");
+        context.getBean(UserRepository.class).saveAll(List.of(client, support));
+
+        SupportThread thread = new SupportThread();
+        thread.setId(UUID.randomUUID().toString());
+        thread.setSubject("Reservation en double");
+        thread.setStatus("ASSIGNED");
+        thread.setCreatedAt(Instant.now());
+        thread.setCreatedByUserId(client.getId());
+        thread.setAssignedSupportUserId(support.getId());
+        context.getBean(SupportThreadRepository.class).save(thread);
+        threadId = thread.getId();
+
+        JwtService jwtService = context.getBean(JwtService.class);
+        Claims claims = jwtService.parseClaims(jwtService.generateToken(client.getId(), client.getEmail(), "CLIENT"));
+        principal = new UsernamePasswordAuthenticationToken(client.getEmail(), null, List.of());
+        principal.setDetails(claims);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String displayName() {
+        return UserSummary.displayName(client);
+    }
+
+    @Benchmark
+    public ThreadDto toThreadDto() {
+        ThreadState state = threadStateCache.get(threadId);
+        return chatController.toThreadDto(state);
+    }
+
+    @Benchmark
+    public void send() {
+        ChatMessage message = new ChatMessage();
+        message.setContent("Bonjour, ma reservation apparait deux fois.");
+        message.setThreadId(threadId);
+        chatController.send(message, principal, "bench-session");
+    }
+
+    private static User user(String role, String firstName, String lastName) {
+        User user = new User();
+        user.setId(UUID.randomUUID().toString());
+        user.setEmail(firstName.toLowerCase() + "." + UUID.randomUUID() + "@example.com");
+        user.setPasswordHash("x");
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setRole(role);
+        return user;
+    }
+}
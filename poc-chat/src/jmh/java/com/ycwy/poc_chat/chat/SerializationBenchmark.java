@@ -0,0 +1,84 @@
+package com.ycwy.poc_chat.chat;
+
+import com.ycwy.poc_chat.support.dto.ThreadDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.JacksonJsonMessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// JSON conversion done by the broker for every published payload, using the
+// same converter as the STOMP channels.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private final JacksonJsonMessageConverter converter = new JacksonJsonMessageConverter();
+
+    private ChatMessage chatMessage;
+    private ThreadDto threadDto;
+    private Message<byte[]> inbound;
+
+    @Setup
+    public void setUp() {
+        Instant now = Instant.now();
+        chatMessage = new ChatMessage(
+                "0b1f4c9e-5d7a-4e8b-9c2d-3f6a1b8e7d40",
+                "Bonjour, ma reservation de vendredi apparait deux fois dans mon espace client.",
+                now,
+                "6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86",
+                "9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b",
+                "Jeanne Martin",
+                "jeanne.martin@example.com"
+        );
+        threadDto = new ThreadDto(
+                "6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86",
+                "Reservation en double",
+                "ASSIGNED",
+                now,
+                "9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b",
+                "Jeanne Martin",
+                "jeanne.martin@example.com",
+                "2f3e4d5c-6b7a-4980-a1b2-c3d4e5f60718",
+                "1a2b3c4d-5e6f-4a7b-8c9d-0e1f2a3b4c5d",
+                "Paul Durand",
+                "paul.durand@example.com",
+                2L
+        );
+        inbound = MessageBuilder
+                .withPayload("{\"content\":\"Bonjour, ma reservation apparait deux fois.\",\"threadId\":\"6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86\"}"
+                        .getBytes(StandardCharsets.UTF_8))
+                .build();
+    }
+
+    @Benchmark
+    public Message<?> serializeChatMessage() {
+        return converter.toMessage(chatMessage, null);
+    }
+
+    @Benchmark
+    public Message<?> serializeThreadDto() {
+        return converter.toMessage(threadDto, null);
+    }
+
+    @Benchmark
+    public Object deserializeInboundChatMessage() {
+        return converter.fromMessage(inbound, ChatMessage.class);
+    }
+}
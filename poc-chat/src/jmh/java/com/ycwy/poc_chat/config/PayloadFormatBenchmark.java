@@ -0,0 +1,122 @@
+package com.ycwy.poc_chat.config;
+
+import com.ycwy.poc_chat.chat.ChatMessage;
+import com.ycwy.poc_chat.chat.TypingEvent;
+import com.ycwy.poc_chat.support.dto.ThreadDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// JSON against CBOR for the payloads of the chat topics: writing (what a
+// publisher pays once per broadcast), transcoding JSON to CBOR (what the
+// outbound channel pays once per broadcast with CBOR subscribers, see
+// PayloadFormatInterceptor) and reading (what a client pays per frame, and the
+// server for inbound SEND frames). Payload sizes are printed at setup:
+//   ./mvnw -Pbenchmark verify "-Djmh.args=PayloadFormatBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadFormatBenchmark {
+
+    @Param({"message", "thread", "typing"})
+    public String payloadType;
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private final CBORMapper cborMapper = CBORMapper.builder().build();
+
+    private Object payload;
+    private byte[] json;
+    private byte[] cbor;
+
+    @Setup
+    public void setUp() {
+        Instant now = Instant.now();
+        payload = switch (payloadType) {
+            case "message" -> new ChatMessage(
+                    "0b1f4c9e-5d7a-4e8b-9c2d-3f6a1b8e7d40",
+                    42L,
+                    "Bonjour, ma reservation de vendredi apparait deux fois dans mon espace client.",
+                    now,
+                    "6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86",
+                    "9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b",
+                    "Jeanne Martin",
+                    "jeanne.martin@example.com"
+            );
+            case "thread" -> new ThreadDto(
+                    "6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86",
+                    "Reservation en double",
+                    "ASSIGNED",
+                    now,
+                    "9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b",
+                    "Jeanne Martin",
+                    "jeanne.martin@example.com",
+                    "2f3e4d5c-6b7a-4980-a1b2-c3d4e5f60718",
+                    "1a2b3c4d-5e6f-4a7b-8c9d-0e1f2a3b4c5d",
+                    "Paul Durand",
+                    "paul.durand@example.com",
+                    2L
+            );
+            case "typing" -> new TypingEvent(
+                    "6c2a9f1e-8b3d-4a7c-b5e9-0d4f2a1c3b86",
+                    "9e8d7c6b-5a4f-4e3d-8c2b-1a0f9e8d7c6b",
+                    "Jeanne Martin",
+                    "jeanne.martin@example.com",
+                    true
+            );
+            default -> throw new IllegalArgumentException("Unknown payloadType: " + payloadType);
+        };
+        json = jsonMapper.writeValueAsBytes(payload);
+        cbor = cborMapper.writeValueAsBytes(payload);
+        System.out.printf("%n%s: json %d bytes, cbor %d bytes%n", payloadType, json.length, cbor.length);
+    }
+
+    @Benchmark
+    public byte[] writeJson() {
+        return jsonMapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] writeCbor() {
+        return cborMapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] transcodeJsonToCbor() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonMapper.createParser(json);
+             JsonGenerator generator = cborMapper.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Object readJson() {
+        return jsonMapper.readValue(json, payload.getClass());
+    }
+
+    @Benchmark
+    public Object readCbor() {
+        return cborMapper.readValue(cbor, payload.getClass());
+    }
+}
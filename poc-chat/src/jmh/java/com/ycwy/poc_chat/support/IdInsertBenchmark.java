@@ -0,0 +1,141 @@
+package com.ycwy.poc_chat.support;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Message inserts into a copy of support_messages keyed by random (UUIDv4) or
+// time-ordered (UUIDv7) ids, stored as CHAR(36) or as a 16-byte UUID column.
+// Rows per second, plus table and index sizes printed at the end of each trial.
+//
+// H2 in memory by default, which only shows the trend. For InnoDB page splits,
+// run against the docker MariaDB with enough preloaded rows that the indexes
+// outgrow the buffer pool:
+//
+//   ./mvnw -Pbenchmark verify -Djmh.args="IdInsertBenchmark -p preloadRows=2000000
+//       -p jdbcUrl=jdbc:mariadb://localhost:3306/ycyw?user=ycyw&password=ycyw&rewriteBatchedStatements=true"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IdInsertBenchmark {
+
+    private static final int BATCH = 100;
+    private static final int THREADS = 1_000;
+    private static final String TABLE = "bench_support_messages";
+
+    @Param({"random", "time-ordered"})
+    public String strategy;
+
+    @Param({"char36", "uuid"})
+    public String storage;
+
+    @Param({"jdbc:h2:mem:ids;DB_CLOSE_DELAY=-1"})
+    public String jdbcUrl;
+
+    @Param({"200000"})
+    public int preloadRows;
+
+    private Connection connection;
+    private PreparedStatement insert;
+    private IdGenerator ids;
+    private String[] threadIds;
+    private long inserted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        ids = "random".equals(strategy) ? new RandomIdGenerator() : new TimeOrderedIdGenerator();
+        connection = DriverManager.getConnection(jdbcUrl);
+        String idType = "uuid".equals(storage) ? "UUID" : "CHAR(36)";
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+            statement.execute("CREATE TABLE " + TABLE + " ("
+                    + "id " + idType + " NOT NULL, "
+                    + "sent_at TIMESTAMP(3) NOT NULL, "
+                    + "content VARCHAR(255) NOT NULL, "
+                    + "thread_id " + idType + " NOT NULL, "
+                    + "PRIMARY KEY (id))");
+            statement.execute("CREATE INDEX idx_bench_thread_sent ON " + TABLE + " (thread_id, sent_at)");
+        }
+        threadIds = new String[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threadIds[i] = ids.newId();
+        }
+        insert = connection.prepareStatement(
+                "INSERT INTO " + TABLE + " (id, sent_at, content, thread_id) VALUES (?, ?, ?, ?)");
+        connection.setAutoCommit(false);
+        for (int i = 0; i < preloadRows; i += BATCH) {
+            insertBatch();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        printSizes();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+        }
+        connection.commit();
+        connection.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertMessages() throws SQLException {
+        insertBatch();
+    }
+
+    private void insertBatch() throws SQLException {
+        Timestamp now = Timestamp.from(Instant.now());
+        for (int i = 0; i < BATCH; i++) {
+            insert.setString(1, ids.newId());
+            insert.setTimestamp(2, now);
+            insert.setString(3, "message " + inserted);
+            insert.setString(4, threadIds[(int) (inserted++ % THREADS)]);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        connection.commit();
+    }
+
+    // InnoDB only: H2 does not report per-table sizes.
+    private void printSizes() throws SQLException {
+        if (!jdbcUrl.startsWith("jdbc:mariadb:") && !jdbcUrl.startsWith("jdbc:mysql:")) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE TABLE " + TABLE);
+            try (ResultSet rs = statement.executeQuery("SELECT table_rows, data_length, index_length "
+                    + "FROM information_schema.tables WHERE table_schema = DATABASE() AND table_name = '" + TABLE + "'")) {
+                if (rs.next()) {
+                    System.out.printf(Locale.ROOT, "%n[%s/%s] rows=%d primary key=%.1f MiB secondary=%.1f MiB%n",
+                            strategy, storage, rs.getLong(1), rs.getLong(2) / 1048576.0, rs.getLong(3) / 1048576.0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.ycwy.poc_chat.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+// Local TCP relay in front of the WebSocket endpoint, counting the bytes that
+// cross it in each direction: what the network carries, after permessage-deflate
+// when it was negotiated. One virtual thread per direction and connection.
+final class ByteCountingProxy implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final String targetHost;
+    private final int targetPort;
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder bytesToServer = new LongAdder();
+    private final LongAdder bytesToClient = new LongAdder();
+
+    ByteCountingProxy(String targetHost, int targetPort) throws IOException {
+        this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        threads.submit(this::accept);
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    long bytesToServer() {
+        return bytesToServer.sum();
+    }
+
+    long bytesToClient() {
+        return bytesToClient.sum();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket(targetHost, targetPort);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                threads.submit(() -> pump(client, server, bytesToServer));
+                threads.submit(() -> pump(server, client, bytesToClient));
+            } catch (IOException ex) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Proxy connection failed: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    // Closing both sockets when one side ends also stops the opposite pump.
+    private static void pump(Socket from, Socket to, LongAdder counter) {
+        byte[] buffer = new byte[16384];
+        try (from; to) {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                counter.add(read);
+            }
+        } catch (IOException ignored) {
+            // Connection closed on either side.
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        threads.shutdownNow();
+    }
+}
@@ -0,0 +1,337 @@
+package com.ycwy.poc_chat.load;
+
+import com.ycwy.poc_chat.auth.AuthRequest;
+import com.ycwy.poc_chat.auth.AuthResponse;
+import com.ycwy.poc_chat.chat.ChatMessage;
+import com.ycwy.poc_chat.chat.TypingEvent;
+import com.ycwy.poc_chat.support.SupportThreadController.CreateThreadRequest;
+import com.ycwy.poc_chat.support.dto.ThreadDto;
+import org.springframework.messaging.converter.JacksonJsonMessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load and soak test for /ws-chat against a running application:
+//
+//   ./mvnw -Pload verify -Dload.args="--sessions=200 --duration-seconds=300"
+//
+// Each session logs in (POST /api/auth/login), creates its own thread
+// (POST /api/threads), subscribes to it and then sends chat.send and
+// chat.typing frames at the configured per-session rates. Latency is measured
+// from the SEND to the broadcast coming back on the same session; the sender's
+// clock stamp travels in the message content.
+//
+// CPU against bandwidth: --compression=true|false offers permessage-deflate or
+// not (browsers always offer it; the server decides with
+// chat.websocket.compression.enabled). Unless --wire-stats=false, WebSocket
+// traffic goes through a local relay that counts the bytes on the wire, and the
+// report adds them next to the CPU used by this process (relay included) and by
+// the server (process_cpu_time from /actuator/prometheus on --metrics-url, the
+// management port), per second and per delivered message. Run once with each
+// setting and compare.
+public class ChatLoadTest {
+
+    private static final String STAMP = "load-test ";
+
+    private final Map<String, String> options;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder typingSent = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder stompErrors = new LongAdder();
+    private final LongAdder transportErrors = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private volatile long measureUntil = Long.MAX_VALUE;
+
+    private RestClient rest;
+    private RestClient metrics;
+    private ByteCountingProxy proxy;
+    private long bytesToServerFrom;
+    private long bytesToClientFrom;
+    private long clientCpuFrom;
+    private long serverCpuFrom;
+
+    ChatLoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        new ChatLoadTest(options).run();
+    }
+
+    void run() throws Exception {
+        String baseUrl = option("base-url", "http://localhost:8080");
+        String wsUrl = option("ws-url", baseUrl.replaceFirst("^http", "ws") + "/ws-chat");
+        String metricsUrl = option("metrics-url", "http://localhost:8090");
+        int sessions = Integer.parseInt(option("sessions", "50"));
+        double sendRate = Double.parseDouble(option("send-rate", "1"));
+        double typingRate = Double.parseDouble(option("typing-rate", "2"));
+        int warmupSeconds = Integer.parseInt(option("warmup-seconds", "5"));
+        int durationSeconds = Integer.parseInt(option("duration-seconds", "60"));
+        int reportSeconds = Integer.parseInt(option("report-seconds", "10"));
+        boolean compression = Boolean.parseBoolean(option("compression", "true"));
+        boolean wireStats = Boolean.parseBoolean(option("wire-stats", "true"));
+        List<String[]> users = new ArrayList<>();
+        for (String credentials : option("users", "client@test.com:123soleil,client2@test.com:123soleil").split(",")) {
+            users.add(credentials.split(":", 2));
+        }
+
+        rest = RestClient.builder().baseUrl(baseUrl).build();
+        metrics = RestClient.builder().baseUrl(metricsUrl).build();
+        URI target = URI.create(wsUrl);
+        if (wireStats && "ws".equals(target.getScheme())) {
+            proxy = new ByteCountingProxy(target.getHost(), target.getPort() == -1 ? 80 : target.getPort());
+            wsUrl = "ws://localhost:" + proxy.port() + target.getRawPath();
+        }
+        WebSocketHttpHeaders handshakeHeaders = new WebSocketHttpHeaders();
+        if (compression) {
+            handshakeHeaders.setSecWebSocketExtensions(List.of(new WebSocketExtension("permessage-deflate")));
+        }
+        Map<String, String> tokens = new ConcurrentHashMap<>();
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new JacksonJsonMessageConverter());
+        stompClient.setInboundMessageSizeLimit(1024 * 1024);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+        System.out.printf(Locale.ROOT, "Opening %d sessions on %s (send %.2f/s, typing %.2f/s per session, compression %s)%n",
+                sessions, wsUrl, sendRate, typingRate, compression ? "offered" : "off");
+        List<StompSession> open = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            String[] user = users.get(i % users.size());
+            try {
+                String token = tokens.computeIfAbsent(user[0], email -> login(rest, email, user[1]));
+                ThreadDto thread = rest.post()
+                        .uri("/api/threads")
+                        .header("Authorization", "Bearer " + token)
+                        .body(new CreateThreadRequest("Load test " + i, null))
+                        .retrieve()
+                        .body(ThreadDto.class);
+                StompSession session = connect(stompClient, wsUrl, handshakeHeaders, token, thread.id());
+                open.add(session);
+                schedule(scheduler, sendRate, () -> send(session, thread.id()));
+                schedule(scheduler, typingRate, () -> typing(session, thread.id()));
+            } catch (Exception ex) {
+                connectFailures.increment();
+                System.err.println("Session " + i + " failed: " + ex.getMessage());
+            }
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        if (proxy != null) {
+            bytesToServerFrom = proxy.bytesToServer();
+            bytesToClientFrom = proxy.bytesToClient();
+        }
+        clientCpuFrom = clientCpuNanos();
+        serverCpuFrom = serverCpuNanos();
+        long start = System.nanoTime();
+        measureFrom = start;
+        long deadline = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportSeconds),
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            report("progress", open.size(), System.nanoTime() - start);
+        }
+        measureUntil = System.nanoTime();
+        scheduler.shutdownNow();
+        // Let in-flight broadcasts arrive before counting losses.
+        TimeUnit.SECONDS.sleep(2);
+        report("final", open.size(), measureUntil - start);
+
+        for (StompSession session : open) {
+            if (session.isConnected()) {
+                session.disconnect();
+            }
+        }
+        stompClient.stop();
+        if (proxy != null) {
+            proxy.close();
+        }
+    }
+
+    private String login(RestClient rest, String email, String password) {
+        AuthResponse response = rest.post()
+                .uri("/api/auth/login")
+                .body(new AuthRequest(email, password))
+                .retrieve()
+                .body(AuthResponse.class);
+        return response.token();
+    }
+
+    private StompSession connect(
+            WebSocketStompClient client, String url, WebSocketHttpHeaders handshakeHeaders, String token, String threadId
+    ) throws Exception {
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token);
+        StompSession session = client.connectAsync(url, handshakeHeaders, connectHeaders, new StompSessionHandlerAdapter() {
+            @Override
+            public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                        byte[] payload, Throwable exception) {
+                stompErrors.increment();
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                // ERROR frames arrive here.
+                stompErrors.increment();
+            }
+
+            @Override
+            public void handleTransportError(StompSession session, Throwable exception) {
+                transportErrors.increment();
+            }
+        }).get(10, TimeUnit.SECONDS);
+        session.subscribe("/topic/threads/" + threadId, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return ChatMessage.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                onMessage((ChatMessage) payload);
+            }
+        });
+        return session;
+    }
+
+    private void send(StompSession session, String threadId) {
+        ChatMessage message = new ChatMessage();
+        message.setThreadId(threadId);
+        long now = System.nanoTime();
+        message.setContent(STAMP + now);
+        try {
+            // The JSR-356 client does not allow concurrent writes on one session.
+            synchronized (session) {
+                session.send("/app/chat.send", message);
+            }
+            if (now >= measureFrom && now < measureUntil) {
+                sent.increment();
+            }
+        } catch (RuntimeException ex) {
+            sendErrors.increment();
+        }
+    }
+
+    private void typing(StompSession session, String threadId) {
+        TypingEvent event = new TypingEvent();
+        event.setThreadId(threadId);
+        event.setTyping(true);
+        try {
+            synchronized (session) {
+                session.send("/app/chat.typing", event);
+            }
+            typingSent.increment();
+        } catch (RuntimeException ex) {
+            sendErrors.increment();
+        }
+    }
+
+    private void onMessage(ChatMessage message) {
+        String content = message.getContent();
+        if (content == null || !content.startsWith(STAMP)) {
+            return;
+        }
+        long sentAt = Long.parseLong(content.substring(STAMP.length()));
+        if (sentAt < measureFrom || sentAt >= measureUntil) {
+            return;
+        }
+        latency.record(System.nanoTime() - sentAt);
+        received.increment();
+    }
+
+    private void report(String label, int sessions, long elapsedNanos) {
+        double seconds = Math.max(1e-9, elapsedNanos / 1e9);
+        long sentCount = sent.sum();
+        long receivedCount = received.sum();
+        long errors = sendErrors.sum() + stompErrors.sum() + transportErrors.sum();
+        System.out.printf(Locale.ROOT,
+                "[%s] %s sessions=%d sent=%d (%.1f/s) delivered=%d (%.1f/s) typing=%d lost=%d errors=%d "
+                        + "(send=%d stomp=%d transport=%d connect=%d) error-rate=%.3f%% "
+                        + "latency ms p50=%.1f p99=%.1f mean=%.1f max=%.1f%n",
+                label, Duration.ofNanos(elapsedNanos).truncatedTo(ChronoUnit.SECONDS),
+                sessions, sentCount, sentCount / seconds, receivedCount, receivedCount / seconds,
+                typingSent.sum(), Math.max(0, sentCount - receivedCount), errors,
+                sendErrors.sum(), stompErrors.sum(), transportErrors.sum(), connectFailures.sum(),
+                sentCount == 0 ? 0 : 100.0 * errors / sentCount,
+                latency.percentileMillis(50), latency.percentileMillis(99), latency.meanMillis(), latency.maxMillis());
+
+        double perMessage = Math.max(1, receivedCount);
+        double clientCpu = (clientCpuNanos() - clientCpuFrom) / 1e9;
+        long serverCpuNanos = serverCpuNanos();
+        double serverCpu = serverCpuNanos < 0 || serverCpuFrom < 0 ? Double.NaN : (serverCpuNanos - serverCpuFrom) / 1e9;
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "[%s] cost", label));
+        if (proxy != null) {
+            long down = proxy.bytesToClient() - bytesToClientFrom;
+            long up = proxy.bytesToServer() - bytesToServerFrom;
+            line.append(String.format(Locale.ROOT, " wire KB/s down=%.1f up=%.1f bytes/delivered down=%.0f up=%.0f",
+                    down / 1024.0 / seconds, up / 1024.0 / seconds, down / perMessage, up / perMessage));
+        }
+        line.append(String.format(Locale.ROOT, " cpu cores client=%.2f server=%.2f cpu us/delivered client=%.0f server=%.0f",
+                clientCpu / seconds, serverCpu / seconds, clientCpu * 1e6 / perMessage, serverCpu * 1e6 / perMessage));
+        System.out.println(line);
+    }
+
+    private static long clientCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    // process_cpu_time_ns_total from the Prometheus endpoint, -1 when unavailable.
+    private long serverCpuNanos() {
+        try {
+            String scrape = metrics.get().uri("/actuator/prometheus").retrieve().body(String.class);
+            for (String metric : scrape == null ? new String[0] : scrape.split("\n")) {
+                if (metric.startsWith("process_cpu_time_ns_total")) {
+                    return (long) Double.parseDouble(metric.substring(metric.lastIndexOf(' ') + 1));
+                }
+            }
+        } catch (RuntimeException ex) {
+            // Endpoint not exposed or metric missing: server CPU is reported as NaN.
+        }
+        return -1;
+    }
+
+    private static void schedule(ScheduledExecutorService scheduler, double ratePerSecond, Runnable task) {
+        if (ratePerSecond <= 0) {
+            return;
+        }
+        long periodMicros = (long) (1_000_000 / ratePerSecond);
+        long initialDelay = (long) (Math.random() * periodMicros);
+        scheduler.scheduleAtFixedRate(task, initialDelay, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+}
@@ -0,0 +1,57 @@
+package com.ycwy.poc_chat.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-resolution latency histogram: 100 µs buckets up to 30 s, one overflow
+// bucket. Constant memory, so it can record a soak test of any length.
+final class LatencyHistogram {
+
+    private static final long BUCKET_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int BUCKETS = (int) (TimeUnit.SECONDS.toNanos(30) / BUCKET_NANOS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        long clamped = Math.max(0, nanos);
+        counts.incrementAndGet((int) Math.min(BUCKETS, clamped / BUCKET_NANOS));
+        total.increment();
+        sumNanos.add(clamped);
+        maxNanos.accumulate(clamped);
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    double meanMillis() {
+        long count = count();
+        return count == 0 ? 0 : sumNanos.sum() / (double) count / 1_000_000;
+    }
+
+    double maxMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+
+    // Upper bound of the bucket holding the given percentile.
+    double percentileMillis(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        long seen = 0;
+        for (int i = 0; i <= BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return i == BUCKETS ? maxMillis() : (i + 1) * BUCKET_NANOS / 1_000_000.0;
+            }
+        }
+        return maxMillis();
+    }
+}
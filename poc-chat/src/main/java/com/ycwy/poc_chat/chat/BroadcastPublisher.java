@@ -0,0 +1,58 @@
+package com.ycwy.poc_chat.chat;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Broadcasts go through here rather than convertAndSend, which converts the
+// payload on every call: a thread update sent to the creator, the assignee and
+// the unassigned queue used to be serialized three times. The payload is
+// converted once into an immutable message whose byte array is shared by every
+// destination and every subscriber behind it. The broker still encodes one
+// STOMP frame per subscriber, since each carries its own subscription and
+// message-id headers (see BroadcastBenchmark for the per-subscriber cost).
+@Component
+public class BroadcastPublisher {
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    public BroadcastPublisher(SimpMessagingTemplate messagingTemplate) {
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    public void publish(Object payload, String destination) {
+        messagingTemplate.send(destination, encode(payload));
+    }
+
+    public void publish(Object payload, List<String> destinations) {
+        if (destinations.isEmpty()) {
+            return;
+        }
+        Message<?> message = encode(payload);
+        for (String destination : destinations) {
+            // The template copies the headers to set the destination; the payload is shared.
+            messagingTemplate.send(destination, message);
+        }
+    }
+
+    Message<?> encode(Object payload) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        // Left mutable so the converter can add the content type.
+        headers.setLeaveMutable(true);
+        Message<?> message = messagingTemplate.getMessageConverter().toMessage(payload, headers.getMessageHeaders());
+        if (message == null) {
+            throw new MessageConversionException("No converter for " + payload.getClass().getName());
+        }
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, MessageHeaderAccessor.class);
+        if (accessor != null) {
+            accessor.setImmutable();
+        }
+        return message;
+    }
+}
@@ -1,17 +1,27 @@
 package com.ycwy.poc_chat.chat;
 
+import com.ycwy.poc_chat.chat.ChatMetrics.Rejection;
+import com.ycwy.poc_chat.support.MessageQueueFullException;
+import com.ycwy.poc_chat.support.MessageSeqReassignedEvent;
 import com.ycwy.poc_chat.support.SupportMessage;
 import com.ycwy.poc_chat.support.SupportMessageService;
-import com.ycwy.poc_chat.support.SupportThread;
-import com.ycwy.poc_chat.support.SupportThreadRepository;
+import com.ycwy.poc_chat.support.ThreadState;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.ThreadTopics;
+import com.ycwy.poc_chat.support.ThreadUpdatePublisher;
+import com.ycwy.poc_chat.support.UnreadNotifier;
 import com.ycwy.poc_chat.support.dto.ThreadDto;
-import com.ycwy.poc_chat.user.User;
-import com.ycwy.poc_chat.user.UserRepository;
+import com.ycwy.poc_chat.user.UserDirectory;
+import com.ycwy.poc_chat.user.UserSummary;
 import io.jsonwebtoken.Claims;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.security.core.Authentication;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import java.time.Instant;
 import java.security.Principal;
@@ -19,132 +29,218 @@ import java.security.Principal;
 @Controller
 public class ChatController {
 
+    private static final String SEND = "chat.send";
+    private static final String TYPING = "chat.typing";
+
     private final SupportMessageService supportMessageService;
-    private final SupportThreadRepository supportThreadRepository;
-    private final UserRepository userRepository;
+    private final ThreadStateCache threadStateCache;
+    private final UserDirectory userDirectory;
     private final SimpMessagingTemplate messagingTemplate;
+    private final TypingAggregator typingAggregator;
+    private final ChatMetrics chatMetrics;
+    private final RejectionLog rejectionLog;
+    private final UnreadNotifier unreadNotifier;
+    private final RecentMessageBuffer recentMessages;
+    private final ThreadUpdatePublisher threadUpdates;
+    private final BroadcastPublisher broadcasts;
 
     public ChatController(
             SupportMessageService supportMessageService,
-            SupportThreadRepository supportThreadRepository,
-            UserRepository userRepository,
-            SimpMessagingTemplate messagingTemplate
+            ThreadStateCache threadStateCache,
+            UserDirectory userDirectory,
+            SimpMessagingTemplate messagingTemplate,
+            TypingAggregator typingAggregator,
+            ChatMetrics chatMetrics,
+            RejectionLog rejectionLog,
+            UnreadNotifier unreadNotifier,
+            RecentMessageBuffer recentMessages,
+            ThreadUpdatePublisher threadUpdates,
+            BroadcastPublisher broadcasts
     ) {
         this.supportMessageService = supportMessageService;
-        this.supportThreadRepository = supportThreadRepository;
-        this.userRepository = userRepository;
+        this.threadStateCache = threadStateCache;
+        this.userDirectory = userDirectory;
         this.messagingTemplate = messagingTemplate;
+        this.typingAggregator = typingAggregator;
+        this.chatMetrics = chatMetrics;
+        this.rejectionLog = rejectionLog;
+        this.unreadNotifier = unreadNotifier;
+        this.recentMessages = recentMessages;
+        this.threadUpdates = threadUpdates;
+        this.broadcasts = broadcasts;
     }
 
     @MessageMapping("/chat.send")
-    public void send(ChatMessage message, Principal principal) {
+    public void send(
+            ChatMessage message,
+            Principal principal,
+            @Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId
+    ) {
+        long start = System.nanoTime();
 
         String content = (message.getContent() == null) ? "" : message.getContent().trim();
 
         // PoC: avoid empty payloads
         if (content.isEmpty()) {
+            reject(SEND, Rejection.EMPTY, message.getThreadId(), null, principal, sessionId);
             return;
         }
 
         String threadId = (message.getThreadId() == null) ? "" : message.getThreadId().trim();
         if (threadId.isEmpty()) {
+            reject(SEND, Rejection.EMPTY, null, null, principal, sessionId);
             return;
         }
 
         AuthContext authContext = authContext(principal);
         if (authContext == null || authContext.userId.isBlank()) {
+            reject(SEND, Rejection.NO_AUTH, threadId, null, principal, sessionId);
             return;
         }
 
-        SupportThread thread = supportThreadRepository.findById(threadId).orElse(null);
-        if (thread == null || !canAccessThread(thread, authContext)) {
-            return;
-        }
-        if ("CLOSED".equalsIgnoreCase(thread.getStatus())) {
-            return;
-        }
-        if ("SUPPORT".equals(authContext.role)
-                && (thread.getAssignedSupportUserId() == null
-                || !thread.getAssignedSupportUserId().equals(authContext.userId))) {
+        ThreadState thread = threadStateCache.get(threadId);
+        Rejection rejection = checkThread(thread, authContext);
+        if (rejection != null) {
+            reject(SEND, rejection, threadId, authContext.userId, principal, sessionId);
             return;
         }
 
-        boolean hadMessages = supportMessageService.hasMessages(threadId);
-
         SupportMessage supportMessage = new SupportMessage();
         supportMessage.setContent(content);
         supportMessage.setSentAt(Instant.now());
         supportMessage.setThreadId(threadId);
         supportMessage.setSenderUserId(authContext.userId);
 
-        SupportMessage saved = supportMessageService.save(supportMessage);
-
-        User sender = userRepository.findById(authContext.userId).orElse(null);
-        String senderName = sender == null ? null : (sender.getFirstName() + " " + sender.getLastName()).trim();
+        SupportMessage saved;
+        try {
+            saved = supportMessageService.submit(supportMessage);
+        } catch (MessageQueueFullException ex) {
+            reject(SEND, Rejection.QUEUE_FULL, threadId, authContext.userId, principal, sessionId);
+            return;
+        }
+        boolean firstMessage = threadStateCache.markHasMessages(threadId);
 
-        ChatMessage payload = new ChatMessage(
-                saved.getContent(),
-                saved.getSentAt(),
-                saved.getThreadId(),
-                saved.getSenderUserId(),
-                senderName == null || senderName.isBlank() ? (sender == null ? null : sender.getEmail()) : senderName,
-                sender == null ? null : sender.getEmail()
-        );
+        ChatMessage payload = payload(saved);
 
-        messagingTemplate.convertAndSend("/topic/threads/" + threadId, payload);
-        if (!hadMessages) {
-            ThreadDto threadDto = toThreadDto(thread);
-            messagingTemplate.convertAndSend("/topic/threads", threadDto);
-            messagingTemplate.convertAndSend("/topic/users/" + threadDto.createdByUserId() + "/threads", threadDto);
+        recentMessages.record(payload);
+        broadcasts.publish(payload, ThreadTopics.thread(threadId));
+        chatMetrics.messageBroadcast(start);
+        typingAggregator.stopped(threadId, authContext.userId);
+        unreadNotifier.messageAdded(
+                threadId, thread.createdByUserId(), thread.assignedSupportUserId(), authContext.userId);
+        if (firstMessage) {
+            threadUpdates.publish(toThreadDto(thread), thread.assignedSupportUserId(), true);
         }
     }
 
     @MessageMapping("/chat.typing")
-    public void typing(TypingEvent event, Principal principal) {
+    public void typing(
+            TypingEvent event,
+            Principal principal,
+            @Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessionId
+    ) {
         if (event == null) {
+            reject(TYPING, Rejection.EMPTY, null, null, principal, sessionId);
             return;
         }
         String threadId = event.getThreadId() == null ? "" : event.getThreadId().trim();
         if (threadId.isEmpty()) {
+            reject(TYPING, Rejection.EMPTY, null, null, principal, sessionId);
             return;
         }
 
         AuthContext authContext = authContext(principal);
         if (authContext == null || authContext.userId.isBlank()) {
+            reject(TYPING, Rejection.NO_AUTH, threadId, null, principal, sessionId);
             return;
         }
 
-        SupportThread thread = supportThreadRepository.findById(threadId).orElse(null);
-        if (thread == null || !canAccessThread(thread, authContext)) {
-            return;
-        }
-        if ("CLOSED".equalsIgnoreCase(thread.getStatus())) {
-            return;
-        }
-        if ("SUPPORT".equals(authContext.role)
-                && (thread.getAssignedSupportUserId() == null
-                || !thread.getAssignedSupportUserId().equals(authContext.userId))) {
+        ThreadState thread = threadStateCache.get(threadId);
+        Rejection rejection = checkThread(thread, authContext);
+        if (rejection != null) {
+            reject(TYPING, rejection, threadId, authContext.userId, principal, sessionId);
             return;
         }
 
-        User sender = userRepository.findById(authContext.userId).orElse(null);
-        String senderName = sender == null ? null : (sender.getFirstName() + " " + sender.getLastName()).trim();
-        TypingEvent payload = new TypingEvent(
+        UserSummary sender = userDirectory.find(authContext.userId);
+        typingAggregator.submit(
                 threadId,
                 authContext.userId,
-                senderName == null || senderName.isBlank() ? (sender == null ? null : sender.getEmail()) : senderName,
-                sender == null ? null : sender.getEmail(),
+                sender == null ? null : sender.displayName(),
+                sender == null ? null : sender.email(),
                 event.isTyping()
         );
-        messagingTemplate.convertAndSend("/topic/threads/" + threadId + "/typing", payload);
     }
 
-    private boolean canAccessThread(SupportThread thread, AuthContext authContext) {
-        if ("SUPPORT".equals(authContext.role)) {
-            String assigned = thread.getAssignedSupportUserId();
-            return assigned == null || assigned.equals(authContext.userId);
+    // Correction for a write-behind message stored under a new seq (another
+    // node had taken the one it was broadcast with): the same id is broadcast
+    // again with the stored seq, and clients replace their copy.
+    @TransactionalEventListener
+    public void onSeqReassigned(MessageSeqReassignedEvent event) {
+        ChatMessage payload = payload(event.message());
+        recentMessages.record(payload);
+        broadcasts.publish(payload, ThreadTopics.thread(payload.getThreadId()));
+    }
+
+    private ChatMessage payload(SupportMessage saved) {
+        UserSummary sender = userDirectory.find(saved.getSenderUserId());
+        return new ChatMessage(
+                saved.getId(),
+                saved.getSeq(),
+                saved.getContent(),
+                saved.getSentAt(),
+                saved.getThreadId(),
+                saved.getSenderUserId(),
+                sender == null ? null : sender.displayName(),
+                sender == null ? null : sender.email()
+        );
+    }
+
+    // Counts the dropped frame, keeps it in the rejection log and tells the
+    // sending session why, on /user/queue/errors.
+    private void reject(
+            String frame,
+            Rejection rejection,
+            String threadId,
+            String userId,
+            Principal principal,
+            String sessionId
+    ) {
+        if (SEND.equals(frame)) {
+            chatMetrics.sendRejected(rejection);
+        } else {
+            chatMetrics.typingRejected(rejection);
         }
-        return "CLIENT".equals(authContext.role) && thread.getCreatedByUserId().equals(authContext.userId);
+        ChatRejection event = new ChatRejection(
+                rejectionLog.nextSeq(),
+                Instant.now(),
+                frame,
+                rejection.name(),
+                threadId,
+                userId,
+                sessionId
+        );
+        rejectionLog.record(event);
+        if (principal == null || sessionId == null) {
+            return;
+        }
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(principal.getName(), "/queue/errors", event, headers.getMessageHeaders());
+    }
+
+    private Rejection checkThread(ThreadState thread, AuthContext authContext) {
+        if (thread == null || !thread.canAccess(authContext.userId, authContext.role)) {
+            return Rejection.FORBIDDEN;
+        }
+        if (thread.isClosed()) {
+            return Rejection.CLOSED_THREAD;
+        }
+        if ("SUPPORT".equals(authContext.role) && !thread.isAssignedTo(authContext.userId)) {
+            return Rejection.NOT_ASSIGNED;
+        }
+        return null;
     }
 
     private AuthContext authContext(Principal principal) {
@@ -163,33 +259,22 @@ public class ChatController {
     private record AuthContext(String userId, String role) {
     }
 
-    private ThreadDto toThreadDto(SupportThread thread) {
-        User user = userRepository.findById(thread.getCreatedByUserId()).orElse(null);
-        User assignedSupport = thread.getAssignedSupportUserId() == null
-                ? null
-                : userRepository.findById(thread.getAssignedSupportUserId()).orElse(null);
+    ThreadDto toThreadDto(ThreadState thread) {
+        UserSummary user = userDirectory.find(thread.createdByUserId());
+        UserSummary assignedSupport = userDirectory.find(thread.assignedSupportUserId());
         return new ThreadDto(
-                thread.getId(),
-                thread.getSubject(),
-                thread.getStatus(),
-                thread.getCreatedAt(),
-                thread.getCreatedByUserId(),
-                displayName(user),
-                user == null ? null : user.getEmail(),
-                thread.getReservationId(),
-                thread.getAssignedSupportUserId(),
-                displayName(assignedSupport),
-                assignedSupport == null ? null : assignedSupport.getEmail()
+                thread.id(),
+                thread.subject(),
+                thread.status(),
+                thread.createdAt(),
+                thread.createdByUserId(),
+                user == null ? null : user.displayName(),
+                user == null ? null : user.email(),
+                thread.reservationId(),
+                thread.assignedSupportUserId(),
+                assignedSupport == null ? null : assignedSupport.displayName(),
+                assignedSupport == null ? null : assignedSupport.email(),
+                null
         );
     }
-
-    private String displayName(User user) {
-        if (user == null) {
-            return null;
-        }
-        String first = user.getFirstName();
-        String last = user.getLastName();
-        String full = (first + " " + last).trim();
-        return full.isEmpty() ? user.getEmail() : full;
-    }
 }
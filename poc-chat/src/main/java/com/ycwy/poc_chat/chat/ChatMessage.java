@@ -4,6 +4,8 @@ import java.time.Instant;
 
 public class ChatMessage {
 
+    private String id;
+    private Long seq;
     private String content;
     private Instant sentAt;
     private String threadId;
@@ -42,6 +44,50 @@ public class ChatMessage {
         this.senderEmail = senderEmail;
     }
 
+    public ChatMessage(
+            String id,
+            String content,
+            Instant sentAt,
+            String threadId,
+            String senderUserId,
+            String senderName,
+            String senderEmail
+    ) {
+        this(content, sentAt, threadId, senderUserId, senderName, senderEmail);
+        this.id = id;
+    }
+
+    public ChatMessage(
+            String id,
+            Long seq,
+            String content,
+            Instant sentAt,
+            String threadId,
+            String senderUserId,
+            String senderName,
+            String senderEmail
+    ) {
+        this(id, content, sentAt, threadId, senderUserId, senderName, senderEmail);
+        this.seq = seq;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    // Position in the thread; a jump tells the client it missed messages.
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
     public String getContent() {
         return content;
     }
@@ -0,0 +1,85 @@
+package com.ycwy.poc_chat.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Meters for the STOMP chat handlers: accepted messages, ingest-to-broadcast
+// latency, rejected frames by reason and messages replayed on resubscribe.
+@Component
+public class ChatMetrics {
+
+    public enum Rejection {
+        EMPTY,
+        NO_AUTH,
+        FORBIDDEN,
+        CLOSED_THREAD,
+        NOT_ASSIGNED,
+        QUEUE_FULL
+    }
+
+    private final Counter messages;
+    private final Timer ingest;
+    private final Map<Rejection, Counter> sendRejections = new EnumMap<>(Rejection.class);
+    private final Map<Rejection, Counter> typingRejections = new EnumMap<>(Rejection.class);
+    private final Counter replayedFromMemory;
+    private final Counter replayedFromDatabase;
+
+    public ChatMetrics(MeterRegistry registry) {
+        this.messages = Counter.builder("chat.messages")
+                .description("Chat messages accepted and broadcast")
+                .register(registry);
+        this.ingest = Timer.builder("chat.message.ingest")
+                .description("From chat.send handling to broadcast on the thread topic")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.replayedFromMemory = replayCounter(registry, "memory");
+        this.replayedFromDatabase = replayCounter(registry, "database");
+        for (Rejection rejection : Rejection.values()) {
+            sendRejections.put(rejection, rejectionCounter(registry, "send", rejection));
+            typingRejections.put(rejection, rejectionCounter(registry, "typing", rejection));
+        }
+    }
+
+    public void messageBroadcast(long startNanos) {
+        messages.increment();
+        ingest.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void sendRejected(Rejection rejection) {
+        sendRejections.get(rejection).increment();
+    }
+
+    public void typingRejected(Rejection rejection) {
+        typingRejections.get(rejection).increment();
+    }
+
+    public void replayedFromMemory(int count) {
+        replayedFromMemory.increment(count);
+    }
+
+    public void replayedFromDatabase(int count) {
+        replayedFromDatabase.increment(count);
+    }
+
+    private static Counter replayCounter(MeterRegistry registry, String source) {
+        return Counter.builder("chat.replay.messages")
+                .description("Missed messages sent to a resubscribing client")
+                .tag("source", source)
+                .register(registry);
+    }
+
+    private static Counter rejectionCounter(MeterRegistry registry, String frame, Rejection rejection) {
+        return Counter.builder("chat.frames.rejected")
+                .description("Inbound chat frames dropped by the server")
+                .tag("frame", frame)
+                .tag("reason", rejection.name().toLowerCase(Locale.ROOT))
+                .register(registry);
+    }
+}
@@ -0,0 +1,16 @@
+package com.ycwy.poc_chat.chat;
+
+import java.time.Instant;
+
+// A chat.send / chat.typing frame the server dropped. Sent to the sender on
+// /user/queue/errors and kept in RejectionLog.
+public record ChatRejection(
+        long seq,
+        Instant at,
+        String frame,
+        String reason,
+        String threadId,
+        String userId,
+        String sessionId
+) {
+}
@@ -0,0 +1,101 @@
+package com.ycwy.poc_chat.chat;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// The last messages broadcast on each thread topic, kept so a resubscribing
+// client can be caught up from memory (see ThreadReplay). One ring per thread,
+// indexed by seq; the ring lock is per thread, never global.
+//
+// Only messages broadcast by this node are seen, so with the relay broker the
+// buffer is disabled and every replay reads the database.
+@Component
+public class RecentMessageBuffer implements MeterBinder {
+
+    private final int capacity;
+    private final boolean enabled;
+    private final Cache<String, Ring> rings;
+
+    public RecentMessageBuffer(
+            @Value("${chat.replay.buffer-size:64}") int capacity,
+            @Value("${chat.replay.max-threads:10000}") long maxThreads,
+            @Value("${chat.replay.idle-minutes:30}") long idleMinutes,
+            @Value("${chat.broker.mode:simple}") String brokerMode
+    ) {
+        this.capacity = Math.max(1, capacity);
+        this.enabled = !"relay".equalsIgnoreCase(brokerMode);
+        this.rings = Caffeine.newBuilder()
+                .maximumSize(maxThreads)
+                .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                .recordStats()
+                .build();
+    }
+
+    public void record(ChatMessage message) {
+        if (!enabled || message.getThreadId() == null || message.getSeq() == null) {
+            return;
+        }
+        rings.get(message.getThreadId(), id -> new Ring(capacity)).add(message);
+    }
+
+    // Messages after lastSeq in seq order, or null when the buffer no longer
+    // (or never did) cover lastSeq + 1 and the caller must read the database.
+    public List<ChatMessage> after(String threadId, long lastSeq) {
+        if (!enabled) {
+            return null;
+        }
+        Ring ring = rings.getIfPresent(threadId);
+        return ring == null ? null : ring.after(lastSeq);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, rings, "replay-buffer");
+    }
+
+    private static final class Ring {
+        private final ChatMessage[] slots;
+        // Lowest seq recorded since the ring was created, and highest so far.
+        private long first = Long.MAX_VALUE;
+        private long newest;
+
+        Ring(int capacity) {
+            this.slots = new ChatMessage[capacity];
+        }
+
+        synchronized void add(ChatMessage message) {
+            long seq = message.getSeq();
+            if (seq <= newest - slots.length) {
+                return;
+            }
+            slots[(int) (seq % slots.length)] = message;
+            first = Math.min(first, seq);
+            newest = Math.max(newest, seq);
+        }
+
+        synchronized List<ChatMessage> after(long lastSeq) {
+            long oldest = Math.max(first, newest - slots.length + 1);
+            if (lastSeq + 1 < oldest) {
+                return null;
+            }
+            List<ChatMessage> missed = new ArrayList<>();
+            for (long seq = Math.max(lastSeq + 1, oldest); seq <= newest; seq++) {
+                ChatMessage message = slots[(int) (seq % slots.length)];
+                // A hole is a message still in flight; it reaches the topic itself.
+                if (message != null && message.getSeq() == seq) {
+                    missed.add(message);
+                }
+            }
+            return missed;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.ycwy.poc_chat.chat;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Most recent rejected chat frames, for diagnosing throughput drops without
+// TRACE logging. Writers claim a slot with one getAndIncrement and overwrite the
+// oldest entry, so recording never blocks or allocates beyond the event itself.
+// Readers may see a slot overwritten mid-scan; entries are checked by seq.
+@Component
+public class RejectionLog {
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicReferenceArray<ChatRejection> slots;
+    private final int mask;
+
+    public RejectionLog(@Value("${chat.rejections.buffer-size:1024}") int bufferSize) {
+        int capacity = Integer.highestOneBit(Math.max(1, bufferSize - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public long nextSeq() {
+        return sequence.getAndIncrement();
+    }
+
+    // The event must carry a seq obtained from nextSeq().
+    public void record(ChatRejection rejection) {
+        slots.set((int) (rejection.seq() & mask), rejection);
+    }
+
+    public long total() {
+        return sequence.get();
+    }
+
+    // Newest first, at most limit entries.
+    public List<ChatRejection> recent(int limit) {
+        long head = sequence.get();
+        int count = (int) Math.min(Math.min(limit, slots.length()), head);
+        List<ChatRejection> result = new ArrayList<>(Math.max(0, count));
+        for (long seq = head - 1; seq >= head - count; seq--) {
+            ChatRejection rejection = slots.get((int) (seq & mask));
+            // Claimed but not yet written, or already overwritten by a newer one.
+            if (rejection != null && rejection.seq() == seq) {
+                result.add(rejection);
+            }
+        }
+        return result;
+    }
+}
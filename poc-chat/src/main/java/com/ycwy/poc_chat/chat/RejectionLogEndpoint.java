@@ -0,0 +1,29 @@
+package com.ycwy.poc_chat.chat;
+
+import org.jspecify.annotations.Nullable;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// GET /actuator/chatrejections?limit=100
+@Component
+@Endpoint(id = "chatrejections")
+public class RejectionLogEndpoint {
+
+    private final RejectionLog rejectionLog;
+
+    public RejectionLogEndpoint(RejectionLog rejectionLog) {
+        this.rejectionLog = rejectionLog;
+    }
+
+    @ReadOperation
+    public RejectionsReport recent(@Nullable Integer limit) {
+        int max = limit == null || limit <= 0 ? 100 : limit;
+        return new RejectionsReport(rejectionLog.total(), rejectionLog.recent(max));
+    }
+
+    public record RejectionsReport(long total, List<ChatRejection> recent) {
+    }
+}
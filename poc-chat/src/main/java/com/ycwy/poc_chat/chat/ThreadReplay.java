@@ -0,0 +1,173 @@
+package com.ycwy.poc_chat.chat;
+
+import com.ycwy.poc_chat.support.SupportMessage;
+import com.ycwy.poc_chat.support.SupportMessageRepository;
+import com.ycwy.poc_chat.support.ThreadState;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.user.UserDirectory;
+import com.ycwy.poc_chat.user.UserSummary;
+import io.jsonwebtoken.Claims;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Reconnect-resume: a SUBSCRIBE to /topic/threads/{id} carrying a last-seq
+// header gets the messages it missed, sent to that subscription only through
+// clientOutboundChannel. They come from RecentMessageBuffer when it still
+// covers last-seq, otherwise from the database, at most max-messages of them;
+// the last frame then carries replay-more: true and the client pages the rest
+// through GET /api/threads/{id}/messages?afterSeq=.
+//
+// The replay runs on the inbound channel's executor once the broker has
+// handled the SUBSCRIBE, never on a WebSocket container thread, which the
+// database fallback would block. The subscription is registered by then, so a
+// message broadcast after the snapshot is delivered live. Live broadcasts can
+// interleave with the replay; clients order by seq and drop duplicate ids.
+// With the relay the SUBSCRIBE has only been forwarded to the external broker
+// at that point; a broadcast in between shows as a seq gap on the next message.
+@Component
+public class ThreadReplay implements ExecutorChannelInterceptor {
+
+    public static final String LAST_SEQ_HEADER = "last-seq";
+    public static final String MORE_HEADER = "replay-more";
+    private static final String THREAD_TOPIC = "/topic/threads/";
+
+    private final RecentMessageBuffer buffer;
+    private final SupportMessageRepository messageRepository;
+    private final ThreadStateCache threadStateCache;
+    private final UserDirectory userDirectory;
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+    private final ObjectProvider<MessageChannel> clientOutboundChannel;
+    private final ChatMetrics chatMetrics;
+    private final int maxMessages;
+
+    public ThreadReplay(
+            RecentMessageBuffer buffer,
+            SupportMessageRepository messageRepository,
+            ThreadStateCache threadStateCache,
+            UserDirectory userDirectory,
+            ObjectProvider<SimpMessagingTemplate> messagingTemplate,
+            @Qualifier("clientOutboundChannel") ObjectProvider<MessageChannel> clientOutboundChannel,
+            ChatMetrics chatMetrics,
+            @Value("${chat.replay.max-messages:200}") int maxMessages
+    ) {
+        this.buffer = buffer;
+        this.messageRepository = messageRepository;
+        this.threadStateCache = threadStateCache;
+        this.userDirectory = userDirectory;
+        this.messagingTemplate = messagingTemplate;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.chatMetrics = chatMetrics;
+        this.maxMessages = maxMessages;
+    }
+
+    // The inbound channel runs each of its handlers as a separate task: only the broker's counts.
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (ex != null || !(handler instanceof AbstractBrokerMessageHandler)) {
+            return;
+        }
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor != null && StompCommand.SUBSCRIBE.equals(accessor.getCommand())) {
+            replay(accessor);
+        }
+    }
+
+    private void replay(StompHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        String lastSeqHeader = accessor.getFirstNativeHeader(LAST_SEQ_HEADER);
+        if (destination == null || lastSeqHeader == null || !destination.startsWith(THREAD_TOPIC)) {
+            return;
+        }
+        String threadId = destination.substring(THREAD_TOPIC.length());
+        long lastSeq;
+        try {
+            lastSeq = Long.parseLong(lastSeqHeader.trim());
+        } catch (NumberFormatException ex) {
+            return;
+        }
+        if (threadId.isEmpty() || threadId.contains("/") || lastSeq < 0 || !canRead(accessor.getUser(), threadId)) {
+            return;
+        }
+
+        List<ChatMessage> missed = buffer.after(threadId, lastSeq);
+        boolean more = false;
+        if (missed != null) {
+            chatMetrics.replayedFromMemory(missed.size());
+        } else {
+            Slice<SupportMessage> slice = messageRepository.findAfterSeq(threadId, lastSeq, PageRequest.of(0, maxMessages));
+            missed = toChatMessages(slice.getContent());
+            more = slice.hasNext();
+            chatMetrics.replayedFromDatabase(missed.size());
+        }
+        for (int i = 0; i < missed.size(); i++) {
+            send(accessor, destination, missed.get(i), more && i == missed.size() - 1);
+        }
+    }
+
+    private void send(StompHeaderAccessor subscribe, String destination, ChatMessage payload, boolean more) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(subscribe.getSessionId());
+        headers.setSubscriptionId(subscribe.getSubscriptionId());
+        headers.setDestination(destination);
+        if (more) {
+            headers.setNativeHeader(MORE_HEADER, "true");
+        }
+        headers.setLeaveMutable(true);
+        Message<?> message = messagingTemplate.getObject().getMessageConverter()
+                .toMessage(payload, headers.getMessageHeaders());
+        if (message != null) {
+            clientOutboundChannel.getObject().send(message);
+        }
+    }
+
+    private boolean canRead(Principal principal, String threadId) {
+        if (!(principal instanceof Authentication authentication)
+                || !(authentication.getDetails() instanceof Claims claims)) {
+            return false;
+        }
+        ThreadState thread = threadStateCache.get(threadId);
+        return thread != null && thread.canAccess(claims.get("uid", String.class), claims.get("role", String.class));
+    }
+
+    private List<ChatMessage> toChatMessages(List<SupportMessage> messages) {
+        Map<String, UserSummary> users = userDirectory.findAll(messages.stream()
+                .map(SupportMessage::getSenderUserId)
+                .collect(Collectors.toSet()));
+        return messages.stream()
+                .map(message -> {
+                    UserSummary user = users.get(message.getSenderUserId());
+                    return new ChatMessage(
+                            message.getId(),
+                            message.getSeq(),
+                            message.getContent(),
+                            message.getSentAt(),
+                            message.getThreadId(),
+                            message.getSenderUserId(),
+                            user == null ? null : user.displayName(),
+                            user == null ? null : user.email()
+                    );
+                })
+                .toList();
+    }
+}
@@ -0,0 +1,333 @@
+package com.ycwy.poc_chat.chat;
+
+import com.ycwy.poc_chat.support.ThreadTopics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Coalesces inbound typing frames per (thread, user): same-state frames are
+// dropped, "typing" expires on a timer wheel when the client stops refreshing
+// it, and each thread publishes at most maxUpdatesPerSecond events.
+@Component
+public class TypingAggregator implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(TypingAggregator.class);
+    private static final int WHEEL_SIZE = 512;
+
+    private final BroadcastPublisher broadcasts;
+    private final long tickMillis;
+    private final long ttlTicks;
+    private final int maxUpdatesPerSecond;
+    // Rate limit windows, in nanoseconds.
+    private final LongSupplier nanoClock;
+
+    private final Map<String, ThreadTyping> threads = new ConcurrentHashMap<>();
+    private final Set<String> pendingThreads = ConcurrentHashMap.newKeySet();
+    private final List<Queue<Expiry>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private volatile long currentTick;
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    @Autowired
+    public TypingAggregator(
+            BroadcastPublisher broadcasts,
+            @Value("${chat.typing.tick-millis:100}") long tickMillis,
+            @Value("${chat.typing.ttl-millis:5000}") long ttlMillis,
+            @Value("${chat.typing.max-updates-per-second:5}") int maxUpdatesPerSecond
+    ) {
+        this(broadcasts, tickMillis, ttlMillis, maxUpdatesPerSecond, System::nanoTime);
+    }
+
+    // Tests pass their own clock and drive tick() without start().
+    TypingAggregator(
+            BroadcastPublisher broadcasts,
+            long tickMillis,
+            long ttlMillis,
+            int maxUpdatesPerSecond,
+            LongSupplier nanoClock
+    ) {
+        this.broadcasts = broadcasts;
+        this.nanoClock = nanoClock;
+        this.tickMillis = tickMillis;
+        this.ttlTicks = Math.max(1, (ttlMillis + tickMillis - 1) / tickMillis);
+        this.maxUpdatesPerSecond = maxUpdatesPerSecond;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "typing-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::safeTick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void submit(String threadId, String userId, String senderName, String senderEmail, boolean typing) {
+        received.increment();
+        List<TypingEvent> events;
+        while (true) {
+            ThreadTyping thread = threads.computeIfAbsent(threadId, ThreadTyping::new);
+            synchronized (thread) {
+                if (thread.removed) {
+                    continue;
+                }
+                Typist typist = thread.typists.get(userId);
+                if (typist == null) {
+                    if (!typing) {
+                        dropped.increment();
+                        return;
+                    }
+                    typist = new Typist(userId, senderName, senderEmail);
+                    thread.typists.put(userId, typist);
+                }
+                if (typing) {
+                    typist.deadline = currentTick + ttlTicks;
+                    if (!typist.scheduled) {
+                        typist.scheduled = true;
+                        schedule(new Expiry(threadId, userId, typist.deadline));
+                    }
+                }
+                if (typist.typing == typing) {
+                    dropped.increment();
+                    return;
+                }
+                typist.typing = typing;
+                events = thread.drain(nanoClock.getAsLong());
+            }
+            break;
+        }
+        publish(threadId, events);
+    }
+
+    // Clears the typing flag after a message is sent, without waiting for the client.
+    public void stopped(String threadId, String userId) {
+        ThreadTyping thread = threads.get(threadId);
+        if (thread == null) {
+            return;
+        }
+        List<TypingEvent> events;
+        synchronized (thread) {
+            Typist typist = thread.typists.get(userId);
+            if (typist == null || !typist.typing) {
+                return;
+            }
+            typist.typing = false;
+            events = thread.drain(nanoClock.getAsLong());
+        }
+        publish(threadId, events);
+    }
+
+    public long receivedCount() {
+        return received.sum();
+    }
+
+    public long publishedCount() {
+        return published.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long expiredCount() {
+        return expired.sum();
+    }
+
+    public int activeThreads() {
+        return threads.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("chat.typing.events", this, TypingAggregator::receivedCount)
+                .tag("outcome", "received").register(registry);
+        FunctionCounter.builder("chat.typing.events", this, TypingAggregator::publishedCount)
+                .tag("outcome", "published").register(registry);
+        FunctionCounter.builder("chat.typing.events", this, TypingAggregator::droppedCount)
+                .tag("outcome", "coalesced").register(registry);
+        FunctionCounter.builder("chat.typing.events", this, TypingAggregator::expiredCount)
+                .tag("outcome", "expired").register(registry);
+        Gauge.builder("chat.typing.active.threads", this, TypingAggregator::activeThreads).register(registry);
+    }
+
+    private void safeTick() {
+        try {
+            tick();
+        } catch (RuntimeException ex) {
+            log.warn("Typing wheel tick failed", ex);
+        }
+    }
+
+    void tick() {
+        long tick = ++currentTick;
+        Queue<Expiry> slot = wheel.get((int) (tick % WHEEL_SIZE));
+        int size = slot.size();
+        for (int i = 0; i < size; i++) {
+            Expiry expiry = slot.poll();
+            if (expiry == null) {
+                break;
+            }
+            if (expiry.deadline > tick) {
+                slot.add(expiry);
+                continue;
+            }
+            expire(expiry, tick);
+        }
+
+        long now = nanoClock.getAsLong();
+        Iterator<String> pending = pendingThreads.iterator();
+        while (pending.hasNext()) {
+            String threadId = pending.next();
+            pending.remove();
+            ThreadTyping thread = threads.get(threadId);
+            if (thread == null) {
+                continue;
+            }
+            List<TypingEvent> events;
+            synchronized (thread) {
+                events = thread.drain(now);
+            }
+            publish(threadId, events);
+        }
+    }
+
+    private void schedule(Expiry expiry) {
+        wheel.get((int) (expiry.deadline % WHEEL_SIZE)).add(expiry);
+    }
+
+    private void expire(Expiry expiry, long tick) {
+        ThreadTyping thread = threads.get(expiry.threadId);
+        if (thread == null) {
+            return;
+        }
+        List<TypingEvent> events;
+        synchronized (thread) {
+            Typist typist = thread.typists.get(expiry.userId);
+            if (typist == null) {
+                return;
+            }
+            // Refreshes only move the deadline; the single wheel entry follows it.
+            if (typist.typing && typist.deadline > tick) {
+                schedule(new Expiry(expiry.threadId, expiry.userId, typist.deadline));
+                return;
+            }
+            typist.scheduled = false;
+            if (typist.typing) {
+                typist.typing = false;
+                expired.increment();
+            }
+            events = thread.drain(nanoClock.getAsLong());
+        }
+        publish(expiry.threadId, events);
+    }
+
+    private void publish(String threadId, List<TypingEvent> events) {
+        for (TypingEvent event : events) {
+            broadcasts.publish(event, ThreadTopics.typing(threadId));
+            published.increment();
+        }
+    }
+
+    private final class ThreadTyping {
+        private final String threadId;
+        private final Map<String, Typist> typists = new HashMap<>();
+        private long windowStart;
+        private int windowCount;
+        private boolean removed;
+
+        private ThreadTyping(String threadId) {
+            this.threadId = threadId;
+        }
+
+        // Called with the monitor held: returns the events allowed by the rate
+        // limit and leaves the rest for a later tick.
+        private List<TypingEvent> drain(long now) {
+            if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+                windowStart = now;
+                windowCount = 0;
+            }
+            List<TypingEvent> events = new ArrayList<>();
+            boolean deferred = false;
+            Iterator<Typist> iterator = typists.values().iterator();
+            while (iterator.hasNext()) {
+                Typist typist = iterator.next();
+                if (typist.typing != typist.published) {
+                    if (windowCount >= maxUpdatesPerSecond) {
+                        deferred = true;
+                        continue;
+                    }
+                    windowCount++;
+                    typist.published = typist.typing;
+                    events.add(new TypingEvent(threadId, typist.userId, typist.senderName, typist.senderEmail, typist.typing));
+                }
+                if (!typist.typing && !typist.published && !typist.scheduled) {
+                    iterator.remove();
+                }
+            }
+            if (deferred) {
+                pendingThreads.add(threadId);
+            } else if (typists.isEmpty()) {
+                removed = true;
+                threads.remove(threadId, this);
+            }
+            return events;
+        }
+    }
+
+    private static final class Typist {
+        private final String userId;
+        private final String senderName;
+        private final String senderEmail;
+        private boolean typing;
+        private boolean published;
+        private boolean scheduled;
+        private long deadline;
+
+        private Typist(String userId, String senderName, String senderEmail) {
+            this.userId = userId;
+            this.senderName = senderName;
+            this.senderEmail = senderEmail;
+        }
+    }
+
+    private record Expiry(String threadId, String userId, long deadline) {
+    }
+}
@@ -0,0 +1,68 @@
+package com.ycwy.poc_chat.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import tools.jackson.core.JacksonException;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// Reads and writes CBOR payloads with Boot's CBORMapper (same spring.jackson.*
+// settings as the JSON converter). Only frames typed as CBOR come here, untyped
+// ones stay JSON: application/cbor, or application/octet-stream;format=cbor,
+// which is how the server sends them (see PayloadFormatInterceptor) and what a
+// client has to use when its STOMP library picks binary frames the same way.
+public class CborMessageConverter extends AbstractMessageConverter {
+
+    public static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+    public static final MimeType CBOR_FRAME =
+            new MimeType(MimeTypeUtils.APPLICATION_OCTET_STREAM, Map.of("format", "cbor"));
+
+    private final CBORMapper mapper;
+
+    public CborMessageConverter(CBORMapper mapper) {
+        super(APPLICATION_CBOR);
+        this.mapper = mapper;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return true;
+    }
+
+    // The default match ignores parameters and would take any octet-stream frame.
+    @Override
+    protected boolean supportsMimeType(MessageHeaders headers) {
+        return isCbor(getMimeType(headers));
+    }
+
+    public static boolean isCbor(MimeType mimeType) {
+        return mimeType != null && (APPLICATION_CBOR.equalsTypeAndSubtype(mimeType)
+                || (CBOR_FRAME.equalsTypeAndSubtype(mimeType) && "cbor".equals(mimeType.getParameter("format"))));
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        Object payload = message.getPayload();
+        byte[] bytes = payload instanceof String text ? text.getBytes(StandardCharsets.UTF_8) : (byte[]) payload;
+        try {
+            return mapper.readValue(bytes, targetClass);
+        } catch (JacksonException ex) {
+            throw new MessageConversionException(message, "Could not read CBOR: " + ex.getOriginalMessage(), ex);
+        }
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        try {
+            return mapper.writeValueAsBytes(payload);
+        } catch (JacksonException ex) {
+            throw new MessageConversionException("Could not write CBOR: " + ex.getOriginalMessage(), ex);
+        }
+    }
+}
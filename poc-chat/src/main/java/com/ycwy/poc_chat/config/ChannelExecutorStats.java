@@ -0,0 +1,112 @@
+package com.ycwy.poc_chat.config;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.TimeWindowMax;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Task counters for one clientInbound/clientOutbound channel executor: time spent
+// waiting in the queue, time spent handling, tasks in flight and rejections.
+public class ChannelExecutorStats implements TaskDecorator {
+
+    // Same rolling window as a Timer's max: two minutes over three buckets.
+    private static final Duration MAX_WAIT_WINDOW = Duration.ofMinutes(2);
+    private static final int MAX_WAIT_BUCKETS = 3;
+
+    private final String channel;
+    private volatile Executor executor;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    // Longest wait over the last two minutes, so a past spike does not hide later ones.
+    private final TimeWindowMax maxWait;
+
+    public ChannelExecutorStats(String channel) {
+        this(channel, Clock.SYSTEM);
+    }
+
+    ChannelExecutorStats(String channel, Clock clock) {
+        this.channel = channel;
+        this.maxWait = new TimeWindowMax(clock, MAX_WAIT_WINDOW.toMillis() / MAX_WAIT_BUCKETS, MAX_WAIT_BUCKETS);
+    }
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        long queuedAt = System.nanoTime();
+        inFlight.increment();
+        return () -> {
+            long startedAt = System.nanoTime();
+            long waited = startedAt - queuedAt;
+            waitNanos.add(waited);
+            maxWait.record(waited, TimeUnit.NANOSECONDS);
+            try {
+                runnable.run();
+            } finally {
+                runNanos.add(System.nanoTime() - startedAt);
+                completed.increment();
+                inFlight.decrement();
+            }
+        };
+    }
+
+    // Counts the rejection, then aborts so the channel reports a MessageDeliveryException.
+    RejectedExecutionHandler rejectionHandler() {
+        ThreadPoolExecutor.AbortPolicy abort = new ThreadPoolExecutor.AbortPolicy();
+        return (runnable, pool) -> {
+            rejected.increment();
+            inFlight.decrement();
+            abort.rejectedExecution(runnable, pool);
+        };
+    }
+
+    void bind(Executor executor) {
+        this.executor = executor;
+    }
+
+    public String channel() {
+        return channel;
+    }
+
+    // Tasks waiting for a pool thread; virtual-thread executors never queue.
+    public int queueDepth() {
+        return executor instanceof ThreadPoolTaskExecutor pool ? pool.getQueueSize() : 0;
+    }
+
+    public int activeThreads() {
+        return executor instanceof ThreadPoolTaskExecutor pool ? pool.getActiveCount() : (int) inFlightCount();
+    }
+
+    public long inFlightCount() {
+        return inFlight.sum();
+    }
+
+    public long completedCount() {
+        return completed.sum();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public long totalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public long totalRunNanos() {
+        return runNanos.sum();
+    }
+
+    public double maxWaitNanos() {
+        return maxWait.poll(TimeUnit.NANOSECONDS);
+    }
+}
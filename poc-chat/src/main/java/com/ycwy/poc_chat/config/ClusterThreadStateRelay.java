@@ -0,0 +1,91 @@
+package com.ycwy.poc_chat.config;
+
+import com.ycwy.poc_chat.security.ThreadSubscriptionRegistry;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.ThreadStateChangedEvent;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Keeps ThreadStateCache coherent across nodes in relay mode: local changes are
+// published on a broker topic and the relay's system session evicts the entry
+// on every other node. Local subscriptions to the thread are then checked
+// again (ThreadSubscriptionRegistry).
+@Component
+@ConditionalOnProperty(name = "chat.broker.mode", havingValue = "relay")
+public class ClusterThreadStateRelay implements MessageHandler, SmartInitializingSingleton {
+
+    public static final String DESTINATION = "/topic/cluster/thread-state";
+    private static final String ORIGIN_HEADER = "origin-node";
+
+    private final ThreadStateCache threadStateCache;
+    private final ThreadSubscriptionRegistry threadSubscriptions;
+    private final ObjectProvider<SimpMessageSendingOperations> messagingTemplate;
+    private final ObjectProvider<AbstractBrokerMessageHandler> brokerHandlers;
+    private final String nodeId;
+
+    public ClusterThreadStateRelay(
+            ThreadStateCache threadStateCache,
+            ThreadSubscriptionRegistry threadSubscriptions,
+            ObjectProvider<SimpMessageSendingOperations> messagingTemplate,
+            ObjectProvider<AbstractBrokerMessageHandler> brokerHandlers,
+            @Value("${chat.broker.node-id:}") String nodeId
+    ) {
+        this.threadStateCache = threadStateCache;
+        this.threadSubscriptions = threadSubscriptions;
+        this.messagingTemplate = messagingTemplate;
+        this.brokerHandlers = brokerHandlers;
+        this.nodeId = nodeId == null || nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+    }
+
+    // Runs before lifecycle beans start, so the system session subscribes on its first CONNECT.
+    @Override
+    public void afterSingletonsInstantiated() {
+        brokerHandlers.forEach(handler -> {
+            if (handler instanceof StompBrokerRelayMessageHandler relay) {
+                Map<String, MessageHandler> subscriptions = new HashMap<>(relay.getSystemSubscriptions());
+                subscriptions.put(DESTINATION, this);
+                relay.setSystemSubscriptions(subscriptions);
+            }
+        });
+    }
+
+    @EventListener
+    public void onLocalChange(ThreadStateChangedEvent event) {
+        messagingTemplate.getObject().convertAndSend(
+                DESTINATION,
+                event.threadId(),
+                Map.of(ORIGIN_HEADER, nodeId)
+        );
+    }
+
+    @Override
+    public void handleMessage(Message<?> message) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+        if (nodeId.equals(accessor.getFirstNativeHeader(ORIGIN_HEADER))) {
+            return;
+        }
+        Object payload = message.getPayload();
+        String threadId = payload instanceof byte[] bytes
+                ? new String(bytes, StandardCharsets.UTF_8)
+                : String.valueOf(payload);
+        String id = threadId.trim();
+        threadStateCache.invalidate(id);
+        // Reloading the thread reads the database: not on the relay's I/O thread.
+        Thread.startVirtualThread(() -> threadSubscriptions.threadChanged(id));
+    }
+}
@@ -0,0 +1,134 @@
+package com.ycwy.poc_chat.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+// MESSAGE frames are what the broker fans out: every subscriber of a broadcast
+// gets the same destination, content type and body, only the subscription and
+// message-id headers differ. Spring's encoder converts each header value to
+// UTF-8 again and assembles the frame from a list of chunks; this one reuses
+// the encoded bytes of repeated header names and values and writes each frame
+// straight into one exactly sized array. Other frames (CONNECTED, RECEIPT,
+// ERROR, heart-beats) keep the default encoding.
+public class FanOutStompEncoder extends StompEncoder {
+
+    private static final byte[] MESSAGE = StompCommand.MESSAGE.name().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.UTF_8);
+    private static final String MESSAGE_ID = "message-id";
+
+    // Header names and values seen across frames: destinations, subscription ids,
+    // content types. Unique values (message-id) are never cached.
+    private final Cache<String, byte[]> encodedStrings;
+
+    public FanOutStompEncoder(long maxCachedStrings) {
+        this.encodedStrings = Caffeine.newBuilder().maximumSize(maxCachedStrings).build();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Map<String, Object> headers, byte[] payload) {
+        Map<String, List<String>> nativeHeaders =
+                (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        // Without native headers StompEncoder also leaves out content-length.
+        if (nativeHeaders == null || StompHeaderAccessor.getCommand(headers) != StompCommand.MESSAGE) {
+            return super.encode(headers, payload);
+        }
+
+        int lines = 0;
+        for (Map.Entry<String, List<String>> entry : nativeHeaders.entrySet()) {
+            if (!"content-length".equals(entry.getKey())) {
+                lines += entry.getValue().size();
+            }
+        }
+        // name, value, name, value...
+        byte[][] parts = new byte[lines * 2][];
+        int size = MESSAGE.length + 1;
+        int part = 0;
+        for (Map.Entry<String, List<String>> entry : nativeHeaders.entrySet()) {
+            String name = entry.getKey();
+            if ("content-length".equals(name)) {
+                continue;
+            }
+            byte[] encodedName = encodedStrings.get(name, FanOutStompEncoder::escape);
+            for (String value : entry.getValue()) {
+                byte[] encodedValue = MESSAGE_ID.equals(name)
+                        ? escape(value)
+                        : encodedStrings.get(value, FanOutStompEncoder::escape);
+                parts[part++] = encodedName;
+                parts[part++] = encodedValue;
+                size += encodedName.length + 1 + encodedValue.length + 1;
+            }
+        }
+        int lengthDigits = digits(payload.length);
+        size += CONTENT_LENGTH.length + 1 + lengthDigits + 1 + 1 + payload.length + 1;
+
+        byte[] frame = new byte[size];
+        int pos = put(frame, 0, MESSAGE);
+        frame[pos++] = '\n';
+        for (int i = 0; i < parts.length; i += 2) {
+            pos = put(frame, pos, parts[i]);
+            frame[pos++] = ':';
+            pos = put(frame, pos, parts[i + 1]);
+            frame[pos++] = '\n';
+        }
+        pos = put(frame, pos, CONTENT_LENGTH);
+        frame[pos++] = ':';
+        for (int value = payload.length, i = pos + lengthDigits - 1; i >= pos; i--, value /= 10) {
+            frame[i] = (byte) ('0' + value % 10);
+        }
+        pos += lengthDigits;
+        frame[pos++] = '\n';
+        frame[pos++] = '\n';
+        pos = put(frame, pos, payload);
+        frame[pos] = 0;
+        return frame;
+    }
+
+    private static int put(byte[] frame, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, frame, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    // STOMP 1.2 header escaping, as StompEncoder does for every frame but CONNECT/CONNECTED.
+    private static byte[] escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = switch (c) {
+                case '\\' -> "\\\\";
+                case ':' -> "\\c";
+                case '\n' -> "\\n";
+                case '\r' -> "\\r";
+                default -> null;
+            };
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return (escaped == null ? value : escaped.toString()).getBytes(StandardCharsets.UTF_8);
+    }
+}
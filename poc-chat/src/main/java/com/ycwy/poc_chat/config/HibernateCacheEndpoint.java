@@ -0,0 +1,75 @@
+package com.ycwy.poc_chat.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.jspecify.annotations.Nullable;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+// GET /actuator/hibernatecache: hits, misses and size per second-level cache region.
+// DELETE /actuator/hibernatecache?region=users: evicts one region, or every
+// region without the parameter, e.g. after editing users directly in the database.
+@Component
+@Endpoint(id = "hibernatecache")
+public class HibernateCacheEndpoint {
+
+    private final SessionFactory sessionFactory;
+
+    public HibernateCacheEndpoint(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    @ReadOperation
+    public CacheReport report() {
+        Statistics statistics = sessionFactory.getStatistics();
+        List<RegionReport> regions = Arrays.stream(statistics.getSecondLevelCacheRegionNames())
+                .sorted()
+                .map(name -> region(name, statistics.getCacheRegionStatistics(name)))
+                .toList();
+        return new CacheReport(
+                statistics.isStatisticsEnabled(),
+                statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount(),
+                statistics.getQueryCachePutCount(),
+                regions
+        );
+    }
+
+    @DeleteOperation
+    public void evict(@Nullable String region) {
+        if (region == null || region.isBlank()) {
+            sessionFactory.getCache().evictAllRegions();
+        } else {
+            sessionFactory.getCache().evictRegion(region);
+        }
+    }
+
+    private static RegionReport region(String name, CacheRegionStatistics stats) {
+        if (stats == null) {
+            return new RegionReport(name, 0, 0, 0, null);
+        }
+        // JCache regions do not report their size.
+        long entries = stats.getElementCountInMemory();
+        return new RegionReport(name, stats.getHitCount(), stats.getMissCount(), stats.getPutCount(),
+                entries < 0 ? null : entries);
+    }
+
+    public record CacheReport(
+            boolean statisticsEnabled,
+            long queryCacheHits,
+            long queryCacheMisses,
+            long queryCachePuts,
+            List<RegionReport> regions
+    ) {
+    }
+
+    public record RegionReport(String region, long hits, long misses, long puts, @Nullable Long entries) {
+    }
+}
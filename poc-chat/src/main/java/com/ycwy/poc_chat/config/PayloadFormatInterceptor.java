@@ -0,0 +1,149 @@
+package com.ycwy.poc_chat.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Wire format per STOMP session, chosen by the content-type header of the
+// CONNECT frame: none or application/json keeps JSON, application/cbor (or
+// application/octet-stream;format=cbor) switches the session to CBOR. Inbound SEND frames are decoded by their own content-type
+// (CborMessageConverter); this interceptor handles the way out.
+//
+// Broadcasts are converted to JSON once and the broker fans the same bytes out
+// to every subscriber, whatever their format. Frames bound for a CBOR session
+// are transcoded token by token on the outbound channel thread, once per
+// payload: the copies the broker makes for each subscriber share the JSON
+// array, which keys the cache by identity. Through the relay every frame comes
+// back from the external broker with its own array, so each is transcoded.
+//
+// Spring sends a STOMP frame as a binary WebSocket message only when its
+// content-type is application/octet-stream; CBOR frames go out as
+// application/octet-stream;format=cbor, anything else would be sent as text.
+@Component
+public class PayloadFormatInterceptor implements ExecutorChannelInterceptor, MeterBinder {
+
+    private final JsonMapper jsonMapper;
+    private final CBORMapper cborMapper;
+    private final boolean cborEnabled;
+
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+    private final Cache<byte[], byte[]> transcoded;
+
+    private final LongAdder transcodedFrames = new LongAdder();
+    private final LongAdder jsonBytes = new LongAdder();
+    private final LongAdder cborBytes = new LongAdder();
+
+    public PayloadFormatInterceptor(
+            JsonMapper jsonMapper,
+            CBORMapper cborMapper,
+            @Value("${chat.websocket.cbor.enabled:true}") boolean cborEnabled,
+            @Value("${chat.websocket.cbor.cached-payloads:1024}") long cachedPayloads
+    ) {
+        this.jsonMapper = jsonMapper;
+        this.cborMapper = cborMapper;
+        this.cborEnabled = cborEnabled;
+        // Weak keys compare by identity and let a payload go with its last frame.
+        this.transcoded = Caffeine.newBuilder().weakKeys().maximumSize(cachedPayloads).build();
+    }
+
+    // Inbound: CONNECT picks the format, DISCONNECT (sent by Spring for closed
+    // sockets too) forgets it. An unknown format is refused with an ERROR frame.
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getSessionId() == null) {
+            return message;
+        }
+        if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+            MimeType format = accessor.getContentType();
+            if (format == null || MimeTypeUtils.APPLICATION_JSON.equalsTypeAndSubtype(format)) {
+                cborSessions.remove(accessor.getSessionId());
+            } else if (cborEnabled && CborMessageConverter.isCbor(format)) {
+                cborSessions.add(accessor.getSessionId());
+            } else {
+                throw new MessageDeliveryException(message, "Unsupported content-type: " + format);
+            }
+        } else if (StompCommand.DISCONNECT.equals(accessor.getCommand())) {
+            cborSessions.remove(accessor.getSessionId());
+        }
+        return message;
+    }
+
+    // Outbound: runs on the outbound pool, once per frame and session.
+    @Override
+    public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+        if (cborSessions.isEmpty()
+                || !(message.getPayload() instanceof byte[] json)
+                || json.length == 0
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || !isCbor(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))) {
+            return message;
+        }
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getMutableAccessor(message);
+        MimeType contentType = accessor.getContentType();
+        if (contentType == null || !MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType)) {
+            return message;
+        }
+        byte[] cbor = transcoded.get(json, this::toCbor);
+        transcodedFrames.increment();
+        jsonBytes.add(json.length);
+        cborBytes.add(cbor.length);
+        // The STOMP handler copies contentType into the frame's content-type header.
+        accessor.setContentType(CborMessageConverter.CBOR_FRAME);
+        return MessageBuilder.createMessage(cbor, accessor.getMessageHeaders());
+    }
+
+    private boolean isCbor(String sessionId) {
+        return sessionId != null && cborSessions.contains(sessionId);
+    }
+
+    private byte[] toCbor(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonMapper.createParser(json);
+             JsonGenerator generator = cborMapper.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stomp.sessions.cbor", cborSessions, Set::size)
+                .description("STOMP sessions that negotiated CBOR payloads").register(registry);
+        FunctionCounter.builder("stomp.cbor.frames", transcodedFrames, LongAdder::sum)
+                .description("MESSAGE frames sent as CBOR").register(registry);
+        FunctionCounter.builder("stomp.cbor.payload.bytes", jsonBytes, LongAdder::sum)
+                .description("Payload bytes of the CBOR frames, before and after transcoding")
+                .tag("format", "json").register(registry);
+        FunctionCounter.builder("stomp.cbor.payload.bytes", cborBytes, LongAdder::sum)
+                .tag("format", "cbor").register(registry);
+    }
+}
@@ -1,27 +1,224 @@
 package com.ycwy.poc_chat.config;
 
+import com.ycwy.poc_chat.chat.ThreadReplay;
 import com.ycwy.poc_chat.security.StompAuthChannelInterceptor;
+import com.ycwy.poc_chat.security.ThreadSubscriptionRegistry;
+import jakarta.servlet.Filter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import org.apache.tomcat.websocket.server.Constants;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.tomcat.servlet.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import tools.jackson.dataformat.cbor.CBORMapper;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    @Value("${chat.broker.mode:simple}")
+    private String brokerMode;
+
+    @Value("${chat.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${chat.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${chat.broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    @Value("${chat.broker.relay.client-login:guest}")
+    private String relayClientLogin;
+
+    @Value("${chat.broker.relay.client-passcode:guest}")
+    private String relayClientPasscode;
+
+    @Value("${chat.broker.relay.system-login:guest}")
+    private String relaySystemLogin;
+
+    @Value("${chat.broker.relay.system-passcode:guest}")
+    private String relaySystemPasscode;
+
+    @Value("${chat.broker.heartbeat-millis:10000}")
+    private long heartbeatMillis;
+
+    @Value("${chat.websocket.inbound.executor:platform}")
+    private String inboundExecutorMode;
+
+    @Value("${chat.websocket.inbound.core-pool-size:16}")
+    private int inboundCorePoolSize;
+
+    @Value("${chat.websocket.inbound.max-pool-size:64}")
+    private int inboundMaxPoolSize;
+
+    @Value("${chat.websocket.inbound.queue-capacity:10000}")
+    private int inboundQueueCapacity;
+
+    @Value("${chat.websocket.inbound.virtual-concurrency-limit:-1}")
+    private int inboundVirtualConcurrencyLimit;
+
+    @Value("${chat.websocket.outbound.core-pool-size:16}")
+    private int outboundCorePoolSize;
+
+    @Value("${chat.websocket.outbound.max-pool-size:64}")
+    private int outboundMaxPoolSize;
+
+    @Value("${chat.websocket.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    @Value("${chat.websocket.send-time-limit-millis:10000}")
+    private int sendTimeLimitMillis;
+
+    @Value("${chat.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${chat.websocket.message-size-limit:65536}")
+    private int messageSizeLimit;
+
+    @Value("${chat.websocket.encoder.cached-headers:4096}")
+    private long encoderCachedHeaders;
+
+    @Value("${chat.websocket.compression.enabled:true}")
+    private boolean compressionEnabled;
+
     private final StompAuthChannelInterceptor stompAuthChannelInterceptor;
+    private final PayloadFormatInterceptor payloadFormatInterceptor;
+    private final ThreadSubscriptionRegistry threadSubscriptions;
+    private final ThreadReplay threadReplay;
+    private final WebSocketMetrics webSocketMetrics;
+    private final CBORMapper cborMapper;
 
-    public WebSocketConfig(StompAuthChannelInterceptor stompAuthChannelInterceptor) {
+    public WebSocketConfig(
+            StompAuthChannelInterceptor stompAuthChannelInterceptor,
+            PayloadFormatInterceptor payloadFormatInterceptor,
+            ThreadSubscriptionRegistry threadSubscriptions,
+            ThreadReplay threadReplay,
+            WebSocketMetrics webSocketMetrics,
+            CBORMapper cborMapper
+    ) {
         this.stompAuthChannelInterceptor = stompAuthChannelInterceptor;
+        this.payloadFormatInterceptor = payloadFormatInterceptor;
+        this.threadSubscriptions = threadSubscriptions;
+        this.threadReplay = threadReplay;
+        this.webSocketMetrics = webSocketMetrics;
+        this.cborMapper = cborMapper;
+    }
+
+    // Sends broker -> client heart-beats for the simple broker (the relay uses its own TCP client).
+    @Bean
+    @ConditionalOnProperty(name = "chat.broker.mode", havingValue = "simple", matchIfMissing = true)
+    public ThreadPoolTaskScheduler brokerHeartbeatScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ws-heartbeat-");
+        return scheduler;
+    }
+
+    // Spring builds the STOMP protocol handler itself and registers it with the
+    // sub-protocol handler while the endpoint mapping is created; once every
+    // singleton exists, MESSAGE frames are switched to FanOutStompEncoder.
+    @Bean
+    public SmartInitializingSingleton fanOutStompEncoder(
+            @Qualifier("subProtocolWebSocketHandler") WebSocketHandler webSocketHandler
+    ) {
+        return () -> {
+            if (WebSocketHandlerDecorator.unwrap(webSocketHandler) instanceof SubProtocolWebSocketHandler handler) {
+                FanOutStompEncoder encoder = new FanOutStompEncoder(encoderCachedHeaders);
+                handler.getProtocolHandlers().forEach(protocolHandler -> {
+                    if (protocolHandler instanceof StompSubProtocolHandler stomp) {
+                        stomp.setEncoder(encoder);
+                    }
+                });
+            }
+        };
+    }
+
+    // Tomcat hands the STOMP handler whole WebSocket messages only, assembled in
+    // buffers it allocates per session (8 KB by default): a bigger frame used to
+    // close the session with 1009 although message-size-limit allows it. Set as
+    // context parameters, read when Tomcat creates its WebSocket container.
+    // Static: the web server factory is built before this configuration's dependencies.
+    @Bean
+    public static WebServerFactoryCustomizer<TomcatServletWebServerFactory> webSocketBufferCustomizer(
+            @Value("${chat.websocket.container.text-buffer-size:${chat.websocket.message-size-limit:65536}}")
+            int containerTextBufferSize,
+            @Value("${chat.websocket.container.binary-buffer-size:${chat.websocket.message-size-limit:65536}}")
+            int containerBinaryBufferSize
+    ) {
+        return factory -> factory.addContextCustomizers(context -> {
+            context.addParameter(Constants.TEXT_BUFFER_SIZE_SERVLET_CONTEXT_INIT_PARAM,
+                    Integer.toString(containerTextBufferSize));
+            context.addParameter(Constants.BINARY_BUFFER_SIZE_SERVLET_CONTEXT_INIT_PARAM,
+                    Integer.toString(containerBinaryBufferSize));
+        });
+    }
+
+    // Tomcat negotiates permessage-deflate by itself from the handshake's
+    // Sec-WebSocket-Extensions header (browsers always offer it), whatever the
+    // handshake handler selects, and then deflates every frame, small ones
+    // included. Turning compression off hides the offer from Tomcat.
+    @Bean
+    public FilterRegistrationBean<Filter> webSocketCompressionFilter() {
+        FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>((request, response, chain) ->
+                chain.doFilter(new HttpServletRequestWrapper((HttpServletRequest) request) {
+                    @Override
+                    public String getHeader(String name) {
+                        return WebSocketHttpHeaders.SEC_WEBSOCKET_EXTENSIONS.equalsIgnoreCase(name)
+                                ? null : super.getHeader(name);
+                    }
+
+                    @Override
+                    public Enumeration<String> getHeaders(String name) {
+                        return WebSocketHttpHeaders.SEC_WEBSOCKET_EXTENSIONS.equalsIgnoreCase(name)
+                                ? Collections.emptyEnumeration() : super.getHeaders(name);
+                    }
+                }, response));
+        registration.addUrlPatterns("/ws-chat", "/ws-chat/*");
+        registration.setEnabled(!compressionEnabled);
+        return registration;
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/topic");
+        switch (brokerMode.trim().toLowerCase()) {
+            case "simple" -> registry.enableSimpleBroker("/topic", "/queue")
+                    .setHeartbeatValue(new long[]{heartbeatMillis, heartbeatMillis})
+                    .setTaskScheduler(brokerHeartbeatScheduler());
+            case "relay" -> configureRelay(registry);
+            default -> throw new IllegalStateException("Unknown chat.broker.mode: " + brokerMode);
+        }
         registry.setApplicationDestinationPrefixes("/app");
+        // /user/queue/errors: per-session replies such as rejected chat frames
+        registry.setUserDestinationPrefix("/user");
     }
 
     @Override
@@ -30,8 +227,88 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setAllowedOriginPatterns("http://localhost:4200");
     }
 
+    // Added next to Boot's JSON, String and byte[] converters; it only takes
+    // frames whose content-type is application/cbor (see PayloadFormatInterceptor).
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        messageConverters.add(new CborMessageConverter(cborMapper));
+        return false;
+    }
+
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(stompAuthChannelInterceptor);
+        registration.interceptors(
+                stompAuthChannelInterceptor, payloadFormatInterceptor, threadSubscriptions, threadReplay);
+        registration.executor(inboundExecutor());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(payloadFormatInterceptor);
+        registration.executor(pool("ws-outbound-", outboundCorePoolSize, outboundMaxPoolSize,
+                outboundQueueCapacity, webSocketMetrics.outbound()));
+    }
+
+    // A session whose pending sends exceed the time or buffer limit is a slow
+    // consumer: Spring closes it instead of letting it hold up the outbound pool.
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMillis)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setMessageSizeLimit(messageSizeLimit)
+                .addDecoratorFactory(webSocketMetrics);
+    }
+
+    // Inbound handlers block on JPA, so they can run on virtual threads instead of a sized pool.
+    private Executor inboundExecutor() {
+        ChannelExecutorStats stats = webSocketMetrics.inbound();
+        switch (inboundExecutorMode.trim().toLowerCase()) {
+            case "platform" -> {
+                return pool("ws-inbound-", inboundCorePoolSize, inboundMaxPoolSize, inboundQueueCapacity, stats);
+            }
+            case "virtual" -> {
+                SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("ws-inbound-");
+                executor.setVirtualThreads(true);
+                executor.setConcurrencyLimit(inboundVirtualConcurrencyLimit);
+                executor.setTaskDecorator(stats);
+                stats.bind(executor);
+                return executor;
+            }
+            default -> throw new IllegalStateException(
+                    "Unknown chat.websocket.inbound.executor: " + inboundExecutorMode);
+        }
+    }
+
+    // Returned through the channel executor bean, which initializes and shuts it down.
+    private static ThreadPoolTaskExecutor pool(
+            String prefix, int corePoolSize, int maxPoolSize, int queueCapacity, ChannelExecutorStats stats
+    ) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(prefix);
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setTaskDecorator(stats);
+        executor.setRejectedExecutionHandler(stats.rejectionHandler());
+        stats.bind(executor);
+        return executor;
+    }
+
+    // Every node relays /topic and /queue to the same external STOMP broker, so a message
+    // published on one node reaches subscribers connected to any node.
+    private void configureRelay(MessageBrokerRegistry registry) {
+        StompBrokerRelayRegistration relay = registry.enableStompBrokerRelay("/topic", "/queue")
+                .setRelayHost(relayHost)
+                .setRelayPort(relayPort)
+                .setClientLogin(relayClientLogin)
+                .setClientPasscode(relayClientPasscode)
+                .setSystemLogin(relaySystemLogin)
+                .setSystemPasscode(relaySystemPasscode)
+                .setSystemHeartbeatSendInterval(heartbeatMillis)
+                .setSystemHeartbeatReceiveInterval(heartbeatMillis);
+        if (!relayVirtualHost.isBlank()) {
+            relay.setVirtualHost(relayVirtualHost);
+        }
     }
 }
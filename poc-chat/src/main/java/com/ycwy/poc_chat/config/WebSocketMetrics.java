@@ -0,0 +1,191 @@
+package com.ycwy.poc_chat.config;
+
+import com.ycwy.poc_chat.support.ThreadTopics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+// Channel executor stats, slow-consumer evictions, and live STOMP sessions and
+// subscriptions for the STOMP endpoint.
+@Component
+public class WebSocketMetrics implements WebSocketHandlerDecoratorFactory, MeterBinder {
+
+    // /topic/threads/42/typing -> /topic/threads/{id}/typing keeps the tag set bounded.
+    private static final Pattern ID_SEGMENT = Pattern.compile("/(threads|users)/[^/]+");
+    // Any other destination, e.g. a user destination the client made up, is tagged "other".
+    private static final Set<String> KNOWN_DESTINATIONS = Set.of(
+            ThreadTopics.thread("{id}"),
+            ThreadTopics.typing("{id}"),
+            ThreadTopics.userThreads("{id}"),
+            ThreadTopics.UNASSIGNED,
+            "/user/queue/errors"
+    );
+    private static final String OTHER_DESTINATION = "other";
+
+    private final ChannelExecutorStats inbound = new ChannelExecutorStats("inbound");
+    private final ChannelExecutorStats outbound = new ChannelExecutorStats("outbound");
+    private final LongAdder evictedSessions = new LongAdder();
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final Map<String, Map<String, String>> sessionSubscriptions = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> subscriptionsByDestination = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+
+    public ChannelExecutorStats inbound() {
+        return inbound;
+    }
+
+    public ChannelExecutorStats outbound() {
+        return outbound;
+    }
+
+    public long evictedSessionCount() {
+        return evictedSessions.sum();
+    }
+
+    public int sessionCount() {
+        return sessions.get();
+    }
+
+    // Sessions that exceed the send time or buffer limit are closed by Spring with
+    // SESSION_NOT_RELIABLE; count them on the way out. Only STOMP sessions that
+    // got CONNECTED count: the disconnect event that forgets them comes after this.
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                if (CloseStatus.SESSION_NOT_RELIABLE.equalsCode(closeStatus)
+                        && sessionSubscriptions.containsKey(session.getId())) {
+                    evictedSessions.increment();
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (sessionId != null && sessionSubscriptions.putIfAbsent(sessionId, new ConcurrentHashMap<>()) == null) {
+            sessions.incrementAndGet();
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> subscriptions = sessionSubscriptions.get(accessor.getSessionId());
+        if (subscriptions == null || accessor.getSubscriptionId() == null || accessor.getDestination() == null) {
+            return;
+        }
+        String destination = destinationTag(accessor.getDestination());
+        if (subscriptions.put(accessor.getSubscriptionId(), destination) == null) {
+            destinationCounter(destination).incrementAndGet();
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> subscriptions = sessionSubscriptions.get(accessor.getSessionId());
+        if (subscriptions == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        String destination = subscriptions.remove(accessor.getSubscriptionId());
+        if (destination != null) {
+            destinationCounter(destination).decrementAndGet();
+        }
+    }
+
+    // A disconnect drops the session's subscriptions without UNSUBSCRIBE frames.
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> subscriptions = sessionSubscriptions.remove(event.getSessionId());
+        if (subscriptions == null) {
+            return;
+        }
+        sessions.decrementAndGet();
+        subscriptions.values().forEach(destination -> destinationCounter(destination).decrementAndGet());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("stomp.sessions", sessions, AtomicInteger::get)
+                .description("Connected STOMP sessions").register(registry);
+        FunctionCounter.builder("stomp.sessions.evicted", this, WebSocketMetrics::evictedSessionCount)
+                .description("Sessions closed for exceeding the send time or buffer limit").register(registry);
+        subscriptionsByDestination.forEach((destination, count) -> registerDestination(registry, destination, count));
+        bindChannel(registry, inbound);
+        bindChannel(registry, outbound);
+    }
+
+    private static String destinationTag(String destination) {
+        String pattern = ID_SEGMENT.matcher(destination).replaceAll("/$1/{id}");
+        return KNOWN_DESTINATIONS.contains(pattern) ? pattern : OTHER_DESTINATION;
+    }
+
+    private AtomicInteger destinationCounter(String destination) {
+        return subscriptionsByDestination.computeIfAbsent(destination, key -> {
+            AtomicInteger count = new AtomicInteger();
+            MeterRegistry current = registry;
+            if (current != null) {
+                registerDestination(current, key, count);
+            }
+            return count;
+        });
+    }
+
+    private static void registerDestination(MeterRegistry registry, String destination, AtomicInteger count) {
+        Gauge.builder("stomp.subscriptions", count, AtomicInteger::get)
+                .description("Active subscriptions per destination pattern")
+                .tag("destination", destination)
+                .register(registry);
+    }
+
+    private static void bindChannel(MeterRegistry registry, ChannelExecutorStats stats) {
+        String channel = stats.channel();
+        Gauge.builder("websocket.channel.queue.depth", stats, ChannelExecutorStats::queueDepth)
+                .tag("channel", channel).register(registry);
+        Gauge.builder("websocket.channel.in.flight", stats, ChannelExecutorStats::inFlightCount)
+                .tag("channel", channel).register(registry);
+        Gauge.builder("websocket.channel.active.threads", stats, ChannelExecutorStats::activeThreads)
+                .tag("channel", channel).register(registry);
+        FunctionCounter.builder("websocket.channel.rejected", stats, ChannelExecutorStats::rejectedCount)
+                .tag("channel", channel).register(registry);
+        FunctionTimer.builder("websocket.channel.task.wait", stats,
+                        ChannelExecutorStats::completedCount, ChannelExecutorStats::totalWaitNanos, TimeUnit.NANOSECONDS)
+                .description("Time a frame waits for a channel thread")
+                .tag("channel", channel).register(registry);
+        FunctionTimer.builder("websocket.channel.task.run", stats,
+                        ChannelExecutorStats::completedCount, ChannelExecutorStats::totalRunNanos, TimeUnit.NANOSECONDS)
+                .description("Time spent handling a frame")
+                .tag("channel", channel).register(registry);
+        TimeGauge.builder("websocket.channel.task.wait.max", stats, TimeUnit.NANOSECONDS, ChannelExecutorStats::maxWaitNanos)
+                .tag("channel", channel).register(registry);
+    }
+}
@@ -1,9 +1,16 @@
 package com.ycwy.poc_chat.reservation;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.util.List;
 
 public interface ReservationRepository extends JpaRepository<Reservation, String> {
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = "reservations-by-user")
+    })
     List<Reservation> findByUserIdOrderByStartAtDesc(String userId);
 }
@@ -0,0 +1,114 @@
+package com.ycwy.poc_chat.search;
+
+import com.ycwy.poc_chat.search.dto.MessageSearchHit;
+import com.ycwy.poc_chat.security.SecurityUtils;
+import com.ycwy.poc_chat.support.SupportThreadController;
+import com.ycwy.poc_chat.support.ThreadState;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.user.UserDirectory;
+import com.ycwy.poc_chat.user.UserSummary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+
+@RestController
+@RequestMapping("/api/messages")
+public class MessageSearchController {
+
+    @Value("${chat.search.page-size:20}")
+    private int defaultPageSize;
+
+    @Value("${chat.search.max-page-size:100}")
+    private int maxPageSize;
+
+    @Value("${chat.search.max-query-length:200}")
+    private int maxQueryLength;
+
+    private final MessageSearchIndex searchIndex;
+    private final ThreadStateCache threadStateCache;
+    private final UserDirectory userDirectory;
+
+    public MessageSearchController(
+            MessageSearchIndex searchIndex,
+            ThreadStateCache threadStateCache,
+            UserDirectory userDirectory
+    ) {
+        this.searchIndex = searchIndex;
+        this.threadStateCache = threadStateCache;
+        this.userDirectory = userDirectory;
+    }
+
+    // q uses the simple query syntax: words are all required, "quoted phrases",
+    // a | b for either, -word to exclude, prefix*. Best matches first; results
+    // only cover threads the caller may open, same rule as the thread listing.
+    @GetMapping("/search")
+    public ResponseEntity<List<MessageSearchHit>> search(
+            @RequestParam String q,
+            @RequestParam(required = false) String threadId,
+            @RequestParam(required = false) Integer offset,
+            @RequestParam(required = false) Integer limit
+    ) {
+        if (q.isBlank() || q.length() > maxQueryLength) {
+            throw new ResponseStatusException(BAD_REQUEST, "Query must be 1 to " + maxQueryLength + " characters");
+        }
+        int size = limit == null ? defaultPageSize : limit;
+        if (size < 1 || size > maxPageSize) {
+            throw new ResponseStatusException(BAD_REQUEST, "Limit must be between 1 and " + maxPageSize);
+        }
+        int skip = offset == null ? 0 : offset;
+        if (skip < 0) {
+            throw new ResponseStatusException(BAD_REQUEST, "Offset must not be negative");
+        }
+        String role = SecurityUtils.currentRole();
+        String userId = SecurityUtils.currentUserId();
+
+        // Clients are narrowed in the index to their own threads; support agents
+        // are checked per thread since assignments change after indexing.
+        Map<String, Boolean> readable = new HashMap<>();
+        MessageSearchIndex.SearchPage page = searchIndex.search(
+                q,
+                "CLIENT".equals(role) ? userId : null,
+                threadId,
+                id -> readable.computeIfAbsent(id, key -> {
+                    ThreadState thread = threadStateCache.get(key);
+                    return thread != null && thread.canAccess(userId, role);
+                }),
+                skip,
+                size
+        );
+
+        Map<String, UserSummary> users = userDirectory.findAll(page.hits().stream()
+                .map(MessageSearchIndex.SearchHit::senderUserId)
+                .collect(Collectors.toSet()));
+        List<MessageSearchHit> body = page.hits().stream()
+                .map(hit -> {
+                    UserSummary user = users.get(hit.senderUserId());
+                    return new MessageSearchHit(
+                            hit.id(),
+                            hit.threadId(),
+                            hit.seq(),
+                            hit.content(),
+                            hit.sentAt(),
+                            hit.senderUserId(),
+                            user == null ? null : user.displayName(),
+                            user == null ? null : user.email(),
+                            hit.score()
+                    );
+                })
+                .toList();
+        return ResponseEntity.ok()
+                .header(SupportThreadController.HAS_MORE_HEADER, String.valueOf(page.hasMore()))
+                .body(body);
+    }
+}
@@ -0,0 +1,34 @@
+package com.ycwy.poc_chat.search;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+// GET /actuator/messagesearch: indexed messages and the last rebuild.
+// POST /actuator/messagesearch: re-indexes every stored message in the
+// background, e.g. on first start with an existing database or after losing
+// the index directory.
+@Component
+@Endpoint(id = "messagesearch")
+public class MessageSearchEndpoint {
+
+    private final MessageSearchIndex searchIndex;
+
+    public MessageSearchEndpoint(MessageSearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    @ReadOperation
+    public MessageSearchIndex.IndexStatus status() {
+        return searchIndex.status();
+    }
+
+    @WriteOperation
+    public RebuildResponse rebuild() {
+        return new RebuildResponse(searchIndex.startRebuild());
+    }
+
+    public record RebuildResponse(boolean started) {
+    }
+}
@@ -0,0 +1,405 @@
+package com.ycwy.poc_chat.search;
+
+import com.ycwy.poc_chat.support.SupportMessage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.fr.FrenchAnalyzer;
+import org.apache.lucene.analysis.fr.FrenchLightStemFilter;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.util.ElisionFilter;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+// Embedded Lucene index over support message content, kept in chat.search.index-dir
+// (in memory when empty). SupportMessageService adds each message as it is
+// stored; searches see it after the next refresh (refresh-millis), and the index
+// is committed to disk every commit-seconds and on shutdown. An index that
+// opens empty (new or deleted directory, in-memory index) while messages are
+// stored is rebuilt in the background.
+//
+// Documents are keyed by message id, so adding a message twice, or rebuilding
+// over a live index, only replaces it. With the relay broker each node indexes
+// the messages it stores itself: a node's search misses the others' messages
+// until it is rebuilt.
+@Component
+public class MessageSearchIndex implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    static final String ID = "id";
+    static final String THREAD = "threadId";
+    static final String THREAD_CREATOR = "threadCreatedBy";
+    static final String SENDER = "senderUserId";
+    static final String SEQ = "seq";
+    static final String SENT_AT = "sentAt";
+    static final String CONTENT = "content";
+
+    private static final int SCAN_BATCH = 100;
+
+    private static final String REBUILD_QUERY = """
+            select m.id, m.seq, m.sent_at, m.content, m.thread_id, m.sender_user_id, t.created_by_user_id
+            from support_messages m
+            join support_threads t on t.id = m.thread_id
+            """;
+
+    private static final String ANY_MESSAGE = "select 1 from support_messages limit 1";
+
+    private final String indexDir;
+    private final long refreshMillis;
+    private final long commitSeconds;
+    private final int maxScan;
+    private final JdbcTemplate jdbcTemplate;
+    private final Analyzer analyzer = new MessageAnalyzer();
+
+    private Directory directory;
+    private IndexWriter writer;
+    private SearcherManager searchers;
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile RebuildStatus lastRebuild;
+    private final LongAdder indexed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public MessageSearchIndex(
+            @Value("${chat.search.index-dir:data/search-index}") String indexDir,
+            @Value("${chat.search.refresh-millis:1000}") long refreshMillis,
+            @Value("${chat.search.commit-seconds:30}") long commitSeconds,
+            @Value("${chat.search.max-scan:5000}") int maxScan,
+            JdbcTemplate jdbcTemplate
+    ) {
+        this.indexDir = indexDir;
+        this.refreshMillis = refreshMillis;
+        this.commitSeconds = commitSeconds;
+        this.maxScan = maxScan;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void open() throws IOException {
+        directory = indexDir == null || indexDir.isBlank()
+                ? new ByteBuffersDirectory()
+                : FSDirectory.open(Path.of(indexDir));
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searchers = new SearcherManager(writer, null);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::commit, commitSeconds, commitSeconds, TimeUnit.SECONDS);
+        if (writer.getDocStats().numDocs == 0) {
+            // Off the startup path: the database may not be reachable yet.
+            scheduler.execute(this::rebuildIfMessagesStored);
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        scheduler.shutdownNow();
+        try {
+            writer.commit();
+        } finally {
+            searchers.close();
+            writer.close();
+            directory.close();
+        }
+    }
+
+    // Never fails the caller: a message missing from the index is still stored
+    // and delivered, and the next rebuild picks it up.
+    public void add(SupportMessage message, String threadCreatedBy) {
+        try {
+            writer.updateDocument(new Term(ID, message.getId()), document(
+                    message.getId(),
+                    message.getSeq() == null ? 0 : message.getSeq(),
+                    message.getSentAt(),
+                    message.getContent(),
+                    message.getThreadId(),
+                    message.getSenderUserId(),
+                    threadCreatedBy
+            ));
+            indexed.increment();
+        } catch (IOException | RuntimeException ex) {
+            failures.increment();
+            log.warn("Could not index message {}", message.getId(), ex);
+        }
+    }
+
+    // Best-scoring matches first. canRead decides per thread id; hits the caller
+    // cannot read are skipped without counting towards offset or limit, and at
+    // most max-scan matches are looked at per search.
+    public SearchPage search(
+            String text,
+            String threadCreatedBy,
+            String threadId,
+            Predicate<String> canRead,
+            int offset,
+            int limit
+    ) {
+        SimpleQueryParser parser = new SimpleQueryParser(analyzer, CONTENT);
+        parser.setDefaultOperator(BooleanClause.Occur.MUST);
+        Query textQuery = parser.parse(text);
+        BooleanQuery.Builder query = new BooleanQuery.Builder().add(textQuery, BooleanClause.Occur.MUST);
+        if (threadCreatedBy != null) {
+            query.add(new TermQuery(new Term(THREAD_CREATOR, threadCreatedBy)), BooleanClause.Occur.FILTER);
+        }
+        if (threadId != null) {
+            query.add(new TermQuery(new Term(THREAD, threadId)), BooleanClause.Occur.FILTER);
+        }
+        try {
+            IndexSearcher searcher = searchers.acquire();
+            try {
+                return collect(searcher, query.build(), canRead, offset, limit);
+            } finally {
+                searchers.release(searcher);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private SearchPage collect(IndexSearcher searcher, Query query, Predicate<String> canRead, int offset, int limit)
+            throws IOException {
+        StoredFields storedFields = searcher.storedFields();
+        List<SearchHit> hits = new ArrayList<>(limit);
+        int skipped = 0;
+        int scanned = 0;
+        ScoreDoc after = null;
+        while (scanned < maxScan) {
+            TopDocs page = searcher.searchAfter(after, query, SCAN_BATCH);
+            if (page.scoreDocs.length == 0) {
+                break;
+            }
+            for (ScoreDoc scoreDoc : page.scoreDocs) {
+                scanned++;
+                Document doc = storedFields.document(scoreDoc.doc);
+                if (!canRead.test(doc.get(THREAD))) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                if (hits.size() == limit) {
+                    return new SearchPage(hits, true);
+                }
+                hits.add(hit(doc, scoreDoc.score));
+            }
+            after = page.scoreDocs[page.scoreDocs.length - 1];
+        }
+        return new SearchPage(hits, false);
+    }
+
+    // Re-adds every stored message, on a background thread. The index stays
+    // searchable meanwhile. Returns false when a rebuild is already running.
+    public boolean startRebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(this::rebuild, "search-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void rebuildIfMessagesStored() {
+        try {
+            if (!jdbcTemplate.queryForList(ANY_MESSAGE, Integer.class).isEmpty() && startRebuild()) {
+                log.info("Search index is empty, rebuilding it from the stored messages");
+            }
+        } catch (RuntimeException ex) {
+            log.warn("Could not check for messages to index: {}", ex.getMessage());
+        }
+    }
+
+    private void rebuild() {
+        Instant startedAt = Instant.now();
+        LongAdder count = new LongAdder();
+        String error = null;
+        try {
+            jdbcTemplate.query(connection -> {
+                var statement = connection.prepareStatement(REBUILD_QUERY);
+                // Stream rows instead of loading the whole table.
+                statement.setFetchSize(500);
+                return statement;
+            }, rs -> {
+                try {
+                    writer.updateDocument(new Term(ID, rs.getString(1)), document(
+                            rs.getString(1),
+                            rs.getLong(2),
+                            rs.getTimestamp(3).toInstant(),
+                            rs.getString(4),
+                            rs.getString(5),
+                            rs.getString(6),
+                            rs.getString(7)
+                    ));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                count.increment();
+            });
+            writer.commit();
+            searchers.maybeRefresh();
+            log.info("Search index rebuilt: {} messages", count.sum());
+        } catch (IOException | RuntimeException ex) {
+            error = ex.getMessage();
+            log.error("Search index rebuild failed after {} messages", count.sum(), ex);
+        } finally {
+            lastRebuild = new RebuildStatus(startedAt, Instant.now(), count.sum(), error);
+            rebuilding.set(false);
+        }
+    }
+
+    public IndexStatus status() {
+        return new IndexStatus(writer.getDocStats().numDocs, rebuilding.get(), lastRebuild);
+    }
+
+    void refresh() {
+        try {
+            searchers.maybeRefresh();
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Search index refresh failed", ex);
+        }
+    }
+
+    private void commit() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Search index commit failed", ex);
+        }
+    }
+
+    private static Document document(
+            String id,
+            long seq,
+            Instant sentAt,
+            String content,
+            String threadId,
+            String senderUserId,
+            String threadCreatedBy
+    ) {
+        Document doc = new Document();
+        doc.add(new StringField(ID, id, Field.Store.YES));
+        doc.add(new StringField(THREAD, threadId, Field.Store.YES));
+        doc.add(new StringField(THREAD_CREATOR, threadCreatedBy == null ? "" : threadCreatedBy, Field.Store.NO));
+        doc.add(new StoredField(SENDER, senderUserId));
+        doc.add(new StoredField(SEQ, seq));
+        doc.add(new StoredField(SENT_AT, sentAt.toEpochMilli()));
+        doc.add(new TextField(CONTENT, content, Field.Store.YES));
+        return doc;
+    }
+
+    private static SearchHit hit(Document doc, float score) {
+        return new SearchHit(
+                doc.get(ID),
+                doc.get(THREAD),
+                doc.getField(SEQ).numericValue().longValue(),
+                doc.get(CONTENT),
+                Instant.ofEpochMilli(doc.getField(SENT_AT).numericValue().longValue()),
+                doc.get(SENDER),
+                score
+        );
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("search.index.documents", this, index -> index.writer.getDocStats().numDocs)
+                .description("Messages in the search index").register(registry);
+        FunctionCounter.builder("search.index.added", indexed, LongAdder::sum)
+                .description("Messages added to the search index as they were stored").register(registry);
+        FunctionCounter.builder("search.index.failures", failures, LongAdder::sum)
+                .description("Messages that could not be indexed").register(registry);
+    }
+
+    public record SearchHit(
+            String id,
+            String threadId,
+            long seq,
+            String content,
+            Instant sentAt,
+            String senderUserId,
+            float score
+    ) {
+    }
+
+    public record SearchPage(List<SearchHit> hits, boolean hasMore) {
+    }
+
+    public record RebuildStatus(Instant startedAt, Instant finishedAt, long messages, String error) {
+    }
+
+    public record IndexStatus(int documents, boolean rebuilding, RebuildStatus lastRebuild) {
+    }
+
+    // French text typed by clients and agents: elisions (l', d') and stop words
+    // removed, accents folded so "ete" finds "été", light stemming for plurals.
+    private static final class MessageAnalyzer extends Analyzer {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            StandardTokenizer tokenizer = new StandardTokenizer();
+            TokenStream stream = new ElisionFilter(tokenizer, FrenchAnalyzer.DEFAULT_ARTICLES);
+            stream = new LowerCaseFilter(stream);
+            stream = new StopFilter(stream, FrenchAnalyzer.getDefaultStopSet());
+            stream = new ASCIIFoldingFilter(stream);
+            stream = new FrenchLightStemFilter(stream);
+            return new TokenStreamComponents(tokenizer, stream);
+        }
+
+        @Override
+        protected TokenStream normalize(String fieldName, TokenStream in) {
+            return new ASCIIFoldingFilter(new LowerCaseFilter(in));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.ycwy.poc_chat.search.dto;
+
+import java.time.Instant;
+
+public record MessageSearchHit(
+        String id,
+        String threadId,
+        long seq,
+        String content,
+        Instant sentAt,
+        String senderUserId,
+        String senderName,
+        String senderEmail,
+        float score
+) {
+}
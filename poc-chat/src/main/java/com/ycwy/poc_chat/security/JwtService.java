@@ -1,26 +1,64 @@
 package com.ycwy.poc_chat.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.HexFormat;
 
+// The same token is presented on every HTTP request and STOMP frame of a
+// session, so verified claims are cached by token digest until the token
+// expires (or the cache TTL, whichever comes first).
 @Service
-public class JwtService {
+public class JwtService implements MeterBinder {
 
-    @Value("${security.jwt.secret}")
-    private String secret;
+    private final Key signingKey;
+    private final JwtParser parser;
+    private final long expirationMinutes;
+    private final Cache<String, Claims> verified;
 
-    @Value("${security.jwt.expiration-minutes:60}")
-    private long expirationMinutes;
+    public JwtService(
+            @Value("${security.jwt.secret}") String secret,
+            @Value("${security.jwt.expiration-minutes:60}") long expirationMinutes,
+            @Value("${security.jwt.cache.max-size:10000}") long cacheMaxSize,
+            @Value("${security.jwt.cache.ttl-seconds:300}") long cacheTtlSeconds
+    ) {
+        this.signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+        this.expirationMinutes = expirationMinutes;
+        Duration ttl = Duration.ofSeconds(cacheTtlSeconds);
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfter(Expiry.<String, Claims>writing((digest, claims) -> {
+                    Date expiration = claims.getExpiration();
+                    if (expiration == null) {
+                        return ttl;
+                    }
+                    Duration untilExpiry = Duration.between(Instant.now(), expiration.toInstant());
+                    return untilExpiry.isNegative() ? Duration.ZERO : min(ttl, untilExpiry);
+                }))
+                .recordStats()
+                .build();
+    }
 
     public String generateToken(String userId, String email, String role) {
         Instant now = Instant.now();
@@ -30,19 +68,54 @@ public class JwtService {
                 .claim("role", role)
                 .setIssuedAt(Date.from(now))
                 .setExpiration(Date.from(now.plus(expirationMinutes, ChronoUnit.MINUTES)))
-                .signWith(signingKey(), SignatureAlgorithm.HS256)
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
     public Claims parseClaims(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(signingKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        String digest = digest(token);
+        Claims claims = verified.getIfPresent(digest);
+        if (claims != null) {
+            Date expiration = claims.getExpiration();
+            if (expiration == null || expiration.after(new Date())) {
+                return claims;
+            }
+            // Expired between two cache sweeps: verify again so the caller gets ExpiredJwtException.
+            verified.invalidate(digest);
+        }
+        claims = verify(token);
+        verified.put(digest, claims);
+        return claims;
+    }
+
+    public CacheStats cacheStats() {
+        return verified.stats();
+    }
+
+    public long cacheSize() {
+        return verified.estimatedSize();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, verified, "jwt-claims");
+    }
+
+    // Full signature and expiry check, no cache.
+    Claims verify(String token) {
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
     }
 
-    private Key signingKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
     }
 }
@@ -1,27 +1,69 @@
 package com.ycwy.poc_chat.security;
 
+import com.ycwy.poc_chat.support.ThreadState;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.ThreadTopics;
 import io.jsonwebtoken.Claims;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.MessageDeliveryException;
 import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
+import java.security.Principal;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+// The JWT is verified once, at CONNECT. Spring keeps the resulting principal for
+// the whole WebSocket session and the token expiry is kept in the session
+// attributes, so SEND/SUBSCRIBE frames only compare the clock against it. Once
+// the token has expired a frame must carry a fresh Authorization header for the
+// same user, which moves the expiry on; otherwise the frame is refused with an
+// ERROR frame (which closes the session);
+// StompSessionExpiry disconnects sessions that stay silent past expiry.
+//
+// SUBSCRIBE is also where topic access is decided, so the broker only fans out
+// to sessions allowed to see a message: see canSubscribe. A refused SUBSCRIBE is
+// dropped, not answered with an ERROR frame, so a thread reassigned in the
+// meantime does not cost the agent their session. ThreadSubscriptionRegistry
+// withdraws thread subscriptions that a later change no longer allows.
+//
+// Clients only SEND to the application (/app/**); a frame addressed to the
+// broker would reach every subscriber of a topic unchecked, so it is refused
+// with an ERROR frame.
 @Component
 public class StompAuthChannelInterceptor implements ChannelInterceptor {
 
+    private static final Logger log = LoggerFactory.getLogger(StompAuthChannelInterceptor.class);
+
+    static final String EXPIRES_AT_ATTRIBUTE = "auth.expiresAt";
+    static final String SUBJECT_ATTRIBUTE = "auth.subject";
+
+    private static final String SUPPORT_TOPICS = "/topic/support/";
+    private static final String USER_DESTINATIONS = "/user/";
+    private static final String APP_DESTINATIONS = "/app/";
+
     private final JwtService jwtService;
+    private final StompSessionExpiry sessionExpiry;
+    private final ThreadStateCache threadStateCache;
 
-    public StompAuthChannelInterceptor(JwtService jwtService) {
+    public StompAuthChannelInterceptor(
+            JwtService jwtService,
+            StompSessionExpiry sessionExpiry,
+            ThreadStateCache threadStateCache
+    ) {
         this.jwtService = jwtService;
+        this.sessionExpiry = sessionExpiry;
+        this.threadStateCache = threadStateCache;
     }
 
     @Override
@@ -30,38 +72,114 @@ public class StompAuthChannelInterceptor implements ChannelInterceptor {
         if (accessor == null) {
             return message;
         }
+        Map<String, Object> session = accessor.getSessionAttributes();
+        if (session == null) {
+            return message;
+        }
 
-        if (StompCommand.CONNECT.equals(accessor.getCommand())
-                || SimpMessageType.MESSAGE.equals(accessor.getMessageType())) {
-            String authHeader = header(accessor, "Authorization");
-            if (authHeader == null) {
-                authHeader = header(accessor, "authorization");
-            }
-            if (authHeader != null && authHeader.startsWith("Bearer ")) {
-                String token = authHeader.substring(7);
-                try {
-                    Claims claims = jwtService.parseClaims(token);
-                    String email = claims.getSubject();
-                    String role = claims.get("role", String.class);
-                    if (email != null && role != null) {
-                        UsernamePasswordAuthenticationToken authentication =
-                                new UsernamePasswordAuthenticationToken(
-                                        email,
-                                        null,
-                                        List.of(new SimpleGrantedAuthority("ROLE_" + role))
-                                );
-                        authentication.setDetails(claims);
-                        accessor.setUser(authentication);
-                        SecurityContextHolder.getContext().setAuthentication(authentication);
-                    }
-                } catch (Exception ignored) {
-                    // Invalid token; continue without authentication.
-                }
+        StompCommand command = accessor.getCommand();
+        if (StompCommand.CONNECT.equals(command)) {
+            authenticate(accessor, session, null);
+            return message;
+        }
+        if (!StompCommand.SEND.equals(command) && !StompCommand.SUBSCRIBE.equals(command)) {
+            return message;
+        }
+
+        Object expiresAt = session.get(EXPIRES_AT_ATTRIBUTE);
+        if (expiresAt instanceof Long millis && millis <= System.currentTimeMillis()) {
+            // Refresh: a frame may carry a new token for the same user.
+            if (!authenticate(accessor, session, (String) session.get(SUBJECT_ATTRIBUTE))) {
+                throw new MessageDeliveryException(message, "Token expired");
             }
         }
+        if (StompCommand.SEND.equals(command)
+                && (accessor.getDestination() == null || !accessor.getDestination().startsWith(APP_DESTINATIONS))) {
+            throw new MessageDeliveryException(message, "SEND not allowed to " + accessor.getDestination());
+        }
+        if (StompCommand.SUBSCRIBE.equals(command) && !canSubscribe(accessor.getUser(), accessor.getDestination())) {
+            log.debug("Subscription to {} refused for session {}", accessor.getDestination(), accessor.getSessionId());
+            return null;
+        }
         return message;
     }
 
+    // Allow-list: a user's own thread list topic, threads (and their typing
+    // topic) the user may open, the unassigned queue for support agents, and
+    // per-session /user/ destinations. Anything else, including the nodes'
+    // /topic/cluster/** traffic, is refused.
+    private boolean canSubscribe(Principal principal, String destination) {
+        Claims claims = claimsOf(principal);
+        if (destination == null || claims == null) {
+            return false;
+        }
+        String userId = claims.get("uid", String.class);
+        String role = claims.get("role", String.class);
+        if (destination.startsWith(USER_DESTINATIONS)) {
+            return true;
+        }
+        if (destination.startsWith(SUPPORT_TOPICS)) {
+            return "SUPPORT".equals(role);
+        }
+        String topicUserId = ThreadTopics.userIdOf(destination);
+        if (topicUserId != null) {
+            return topicUserId.equals(userId);
+        }
+        String threadId = ThreadTopics.threadIdOf(destination);
+        if (threadId != null) {
+            ThreadState thread = threadStateCache.get(threadId);
+            return thread != null && thread.canAccess(userId, role);
+        }
+        return false;
+    }
+
+    // Claims of a principal set by authenticate, else null.
+    static Claims claimsOf(Principal principal) {
+        return principal instanceof Authentication authentication
+                && authentication.getDetails() instanceof Claims claims ? claims : null;
+    }
+
+    private boolean authenticate(StompHeaderAccessor accessor, Map<String, Object> session, String expectedSubject) {
+        String authHeader = header(accessor, "Authorization");
+        if (authHeader == null) {
+            authHeader = header(accessor, "authorization");
+        }
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return false;
+        }
+        String token = authHeader.substring(7);
+        try {
+            Claims claims = jwtService.parseClaims(token);
+            String email = claims.getSubject();
+            String role = claims.get("role", String.class);
+            if (email == null || role == null || (expectedSubject != null && !expectedSubject.equals(email))) {
+                return false;
+            }
+            UsernamePasswordAuthenticationToken authentication =
+                    new UsernamePasswordAuthenticationToken(
+                            email,
+                            null,
+                            List.of(new SimpleGrantedAuthority("ROLE_" + role))
+                    );
+            authentication.setDetails(claims);
+            // Spring keeps the principal set at CONNECT for the whole session; a
+            // refresh only applies to its own frame. Later frames keep the CONNECT
+            // principal, which is fine: the subject must match, and the new expiry
+            // is read from the session attributes.
+            accessor.setUser(authentication);
+            Date expiration = claims.getExpiration();
+            session.put(SUBJECT_ATTRIBUTE, email);
+            if (expiration != null) {
+                session.put(EXPIRES_AT_ATTRIBUTE, expiration.getTime());
+                sessionExpiry.schedule(accessor.getSessionId(), session, expiration.getTime());
+            }
+            return true;
+        } catch (Exception ignored) {
+            // Invalid token; continue without authentication.
+            return false;
+        }
+    }
+
     private String header(StompHeaderAccessor accessor, String name) {
         List<String> values = accessor.getNativeHeader(name);
         return values == null || values.isEmpty() ? null : values.get(0);
@@ -0,0 +1,66 @@
+package com.ycwy.poc_chat.security;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+// Disconnects STOMP sessions whose token expired and was not refreshed, so a
+// session that only listens cannot outlive its token either.
+@Component
+public class StompSessionExpiry {
+
+    private static final String TIMER_ATTRIBUTE = "auth.expiryTimer";
+
+    private final ObjectProvider<TaskScheduler> scheduler;
+    private final ObjectProvider<MessageChannel> clientOutboundChannel;
+
+    public StompSessionExpiry(
+            @Qualifier("messageBrokerTaskScheduler") ObjectProvider<TaskScheduler> scheduler,
+            @Qualifier("clientOutboundChannel") ObjectProvider<MessageChannel> clientOutboundChannel
+    ) {
+        this.scheduler = scheduler;
+        this.clientOutboundChannel = clientOutboundChannel;
+    }
+
+    void schedule(String sessionId, Map<String, Object> session, long expiresAt) {
+        ScheduledFuture<?> timer = scheduler.getObject()
+                .schedule(() -> expire(sessionId, session, expiresAt), Instant.ofEpochMilli(expiresAt));
+        Object previous = session.put(TIMER_ATTRIBUTE, timer);
+        if (previous instanceof ScheduledFuture<?> future) {
+            future.cancel(false);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, Object> session = SimpMessageHeaderAccessor.getSessionAttributes(event.getMessage().getHeaders());
+        if (session != null && session.remove(TIMER_ATTRIBUTE) instanceof ScheduledFuture<?> future) {
+            future.cancel(false);
+        }
+    }
+
+    private void expire(String sessionId, Map<String, Object> session, long expiresAt) {
+        // A refresh moved the deadline and scheduled its own timer.
+        if (!Long.valueOf(expiresAt).equals(session.get(StompAuthChannelInterceptor.EXPIRES_AT_ATTRIBUTE))) {
+            return;
+        }
+        StompHeaderAccessor error = StompHeaderAccessor.create(StompCommand.ERROR);
+        error.setMessage("Token expired");
+        error.setSessionId(sessionId);
+        error.setLeaveMutable(true);
+        // Spring closes the WebSocket after delivering an ERROR frame.
+        clientOutboundChannel.getObject().send(MessageBuilder.createMessage(new byte[0], error.getMessageHeaders()));
+    }
+}
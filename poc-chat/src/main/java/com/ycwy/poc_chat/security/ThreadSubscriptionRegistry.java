@@ -0,0 +1,165 @@
+package com.ycwy.poc_chat.security;
+
+import com.ycwy.poc_chat.support.ThreadState;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.ThreadStateChangedEvent;
+import com.ycwy.poc_chat.support.ThreadTopics;
+import io.jsonwebtoken.Claims;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Thread topic subscriptions of the local sessions, so access is not only
+// checked at SUBSCRIBE: when a thread changes (claim, transfer) its
+// subscriptions are checked again and the broker is sent an UNSUBSCRIBE for
+// those that are no longer allowed, e.g. the previous agent after a transfer.
+// The client is not told on the subscription itself; the thread update on its
+// user topic already takes the thread out of its list.
+//
+// A subscription is recorded once the broker has handled the SUBSCRIBE, then
+// checked again, so a change racing with the SUBSCRIBE is not missed.
+@Component
+public class ThreadSubscriptionRegistry implements ExecutorChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadSubscriptionRegistry.class);
+
+    private final ThreadStateCache threadStateCache;
+    private final ObjectProvider<MessageChannel> brokerChannel;
+
+    private final Map<String, Map<Key, Subscriber>> byThread = new ConcurrentHashMap<>();
+    // session id -> subscription id -> thread id, for UNSUBSCRIBE and DISCONNECT
+    private final Map<String, Map<String, String>> bySession = new ConcurrentHashMap<>();
+
+    public ThreadSubscriptionRegistry(
+            ThreadStateCache threadStateCache,
+            @Qualifier("brokerChannel") ObjectProvider<MessageChannel> brokerChannel
+    ) {
+        this.threadStateCache = threadStateCache;
+        this.brokerChannel = brokerChannel;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getSessionId() == null) {
+            return message;
+        }
+        if (StompCommand.UNSUBSCRIBE.equals(accessor.getCommand()) && accessor.getSubscriptionId() != null) {
+            remove(accessor.getSessionId(), accessor.getSubscriptionId());
+        } else if (StompCommand.DISCONNECT.equals(accessor.getCommand())) {
+            Map<String, String> subscriptions = bySession.remove(accessor.getSessionId());
+            if (subscriptions != null) {
+                subscriptions.forEach((subscriptionId, threadId) ->
+                        removeFromThread(threadId, new Key(accessor.getSessionId(), subscriptionId)));
+            }
+        }
+        return message;
+    }
+
+    // The inbound channel runs each of its handlers as a separate task: only the broker's counts.
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (ex != null || !(handler instanceof AbstractBrokerMessageHandler)) {
+            return;
+        }
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.SUBSCRIBE.equals(accessor.getCommand())) {
+            return;
+        }
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        String destination = accessor.getDestination();
+        String threadId = destination == null ? null : ThreadTopics.threadIdOf(destination);
+        Claims claims = StompAuthChannelInterceptor.claimsOf(accessor.getUser());
+        if (sessionId == null || subscriptionId == null || threadId == null || claims == null) {
+            return;
+        }
+        Key key = new Key(sessionId, subscriptionId);
+        Subscriber subscriber = new Subscriber(destination, claims.get("uid", String.class), claims.get("role", String.class));
+        bySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, threadId);
+        byThread.compute(threadId, (id, subscriptions) -> {
+            Map<Key, Subscriber> updated = subscriptions == null ? new ConcurrentHashMap<>() : subscriptions;
+            updated.put(key, subscriber);
+            return updated;
+        });
+        if (!canAccess(threadStateCache.get(threadId), subscriber)) {
+            revoke(threadId, key, subscriber);
+        }
+    }
+
+    @EventListener
+    public void onThreadChanged(ThreadStateChangedEvent event) {
+        threadChanged(event.threadId());
+    }
+
+    // Also called for changes made on other nodes (ClusterThreadStateRelay).
+    public void threadChanged(String threadId) {
+        Map<Key, Subscriber> subscriptions = byThread.get(threadId);
+        if (subscriptions == null) {
+            return;
+        }
+        ThreadState thread = threadStateCache.get(threadId);
+        subscriptions.forEach((key, subscriber) -> {
+            if (!canAccess(thread, subscriber)) {
+                revoke(threadId, key, subscriber);
+            }
+        });
+    }
+
+    private static boolean canAccess(ThreadState thread, Subscriber subscriber) {
+        return thread != null && thread.canAccess(subscriber.userId(), subscriber.role());
+    }
+
+    // Same headers as a client UNSUBSCRIBE: the simple broker drops the
+    // subscription, the relay forwards it on the session's broker connection.
+    private void revoke(String threadId, Key key, Subscriber subscriber) {
+        remove(key.sessionId(), key.subscriptionId());
+        StompHeaderAccessor unsubscribe = StompHeaderAccessor.create(StompCommand.UNSUBSCRIBE);
+        unsubscribe.setSessionId(key.sessionId());
+        unsubscribe.setSubscriptionId(key.subscriptionId());
+        unsubscribe.setDestination(subscriber.destination());
+        brokerChannel.getObject().send(MessageBuilder.createMessage(new byte[0], unsubscribe.getMessageHeaders()));
+        log.debug("Subscription {} to {} revoked for session {}", key.subscriptionId(), threadId, key.sessionId());
+    }
+
+    private void remove(String sessionId, String subscriptionId) {
+        Map<String, String> subscriptions = bySession.get(sessionId);
+        String threadId = subscriptions == null ? null : subscriptions.remove(subscriptionId);
+        if (threadId != null) {
+            bySession.computeIfPresent(sessionId, (id, current) -> current.isEmpty() ? null : current);
+            removeFromThread(threadId, new Key(sessionId, subscriptionId));
+        }
+    }
+
+    private void removeFromThread(String threadId, Key key) {
+        byThread.computeIfPresent(threadId, (id, subscriptions) -> {
+            subscriptions.remove(key);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    int size() {
+        return byThread.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private record Key(String sessionId, String subscriptionId) {
+    }
+
+    private record Subscriber(String destination, String userId, String role) {
+    }
+}
@@ -0,0 +1,9 @@
+package com.ycwy.poc_chat.support;
+
+// Primary keys of support_threads and support_messages, chosen with chat.ids.strategy.
+// Ids keep the 36-character UUID text form whatever the strategy, so CHAR(36)
+// and native UUID columns both accept them.
+public interface IdGenerator {
+
+    String newId();
+}
@@ -0,0 +1,168 @@
+package com.ycwy.poc_chat.support;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+@ConditionalOnProperty(name = "chat.persistence.mode", havingValue = "write-behind")
+public class JdbcMessageBatchWriter implements MessageBatchWriter {
+
+    private static final String INSERT = """
+            insert into support_messages (id, sent_at, seq, content, thread_id, sender_user_id)
+            values (?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String EXISTS = "select count(*) from support_messages where id = ?";
+
+    private static final int MAX_SEQ_ATTEMPTS = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final ThreadStateCache threadStateCache;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public JdbcMessageBatchWriter(
+            JdbcTemplate jdbcTemplate,
+            ThreadStateCache threadStateCache,
+            ApplicationEventPublisher eventPublisher
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.threadStateCache = threadStateCache;
+        this.eventPublisher = eventPublisher;
+    }
+
+    // Inserts and thread activity updates share the transaction, so a failed
+    // batch leaves neither behind and can be retried as a whole. A seq taken by
+    // another node fails the whole batch with DuplicateKeyException; the
+    // write-behind then writes its rows one by one, see writeOne.
+    @Override
+    @Transactional
+    public void write(List<SupportMessage> batch) {
+        if (batch.size() == 1) {
+            writeOne(batch.get(0));
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT, batch, batch.size(), (ps, message) -> {
+            ps.setString(1, message.getId());
+            ps.setTimestamp(2, Timestamp.from(message.getSentAt()));
+            ps.setLong(3, message.getSeq());
+            ps.setString(4, message.getContent());
+            ps.setString(5, message.getThreadId());
+            ps.setString(6, message.getSenderUserId());
+        });
+        recordActivity(batch);
+    }
+
+    // The seq was handed out, and broadcast, before the row reached the
+    // database. When another node stored that seq first, the thread's counter
+    // catches up with the database and the message is stored under a new seq
+    // rather than lost; MessageSeqReassignedEvent then re-broadcasts it, and
+    // clients replace their copy by id.
+    private void writeOne(SupportMessage message) {
+        long broadcastSeq = message.getSeq();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                insert(message);
+                break;
+            } catch (DuplicateKeyException ex) {
+                if (exists(message.getId())) {
+                    // Already written, and counted, by an earlier attempt.
+                    return;
+                }
+                if (attempt >= MAX_SEQ_ATTEMPTS) {
+                    throw ex;
+                }
+                threadStateCache.resyncSeq(message.getThreadId());
+                message.setSeq(threadStateCache.nextSeq(message.getThreadId()));
+            }
+        }
+        recordActivity(List.of(message));
+        if (message.getSeq() != broadcastSeq) {
+            eventPublisher.publishEvent(new MessageSeqReassignedEvent(message, broadcastSeq));
+        }
+    }
+
+    private void insert(SupportMessage message) {
+        jdbcTemplate.update(
+                INSERT,
+                message.getId(),
+                Timestamp.from(message.getSentAt()),
+                message.getSeq(),
+                message.getContent(),
+                message.getThreadId(),
+                message.getSenderUserId()
+        );
+    }
+
+    private boolean exists(String id) {
+        Integer count = jdbcTemplate.queryForObject(EXISTS, Integer.class, id);
+        return count != null && count > 0;
+    }
+
+    // One activity update per thread in the batch rather than one per message,
+    // then one watermark update per sender and thread.
+    private void recordActivity(List<SupportMessage> messages) {
+        Map<String, ThreadActivity> byThread = new LinkedHashMap<>();
+        for (SupportMessage message : messages) {
+            byThread.computeIfAbsent(message.getThreadId(), id -> new ThreadActivity()).add(message);
+        }
+        SqlParameterSource[] updates = byThread.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("threadId", entry.getKey())
+                        .addValue("count", entry.getValue().count)
+                        .addValue("firstAt", Timestamp.from(entry.getValue().first.getSentAt()))
+                        .addValue("lastAt", Timestamp.from(entry.getValue().last.getSentAt()))
+                        .addValue("lastSender", entry.getValue().last.getSenderUserId()))
+                .toArray(SqlParameterSource[]::new);
+        namedJdbcTemplate.batchUpdate(SupportThreadRepository.RECORD_MESSAGES, updates);
+        SqlParameterSource[] watermarks = byThread.entrySet().stream()
+                .flatMap(entry -> entry.getValue().lastBySender.values().stream()
+                        .map(sent -> new MapSqlParameterSource()
+                                .addValue("userId", sent.getSenderUserId())
+                                .addValue("threadId", entry.getKey())
+                                .addValue("storedAfter", entry.getValue().storedAfter(sent))
+                                .addValue("readAt", Timestamp.from(sent.getSentAt()))))
+                .toArray(SqlParameterSource[]::new);
+        namedJdbcTemplate.batchUpdate(ReadWatermarkRepository.MARK_SENT, watermarks);
+    }
+
+    private static final class ThreadActivity {
+        private int count;
+        private SupportMessage first;
+        private SupportMessage last;
+        private final List<SupportMessage> messages = new ArrayList<>();
+        private final Map<String, SupportMessage> lastBySender = new LinkedHashMap<>();
+
+        void add(SupportMessage message) {
+            count++;
+            messages.add(message);
+            lastBySender.merge(message.getSenderUserId(), message,
+                    (current, added) -> added.getSeq() > current.getSeq() ? added : current);
+            if (first == null || message.getSentAt().isBefore(first.getSentAt())) {
+                first = message;
+            }
+            if (last == null || !message.getSentAt().isBefore(last.getSentAt())) {
+                last = message;
+            }
+        }
+
+        // Messages of the batch the sender has not read: those after its last one.
+        long storedAfter(SupportMessage sent) {
+            return messages.stream().filter(message -> message.getSeq() > sent.getSeq()).count();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.ycwy.poc_chat.support;
+
+import java.util.List;
+
+public interface MessageBatchWriter {
+
+    // Must be idempotent per message id: a retried batch may contain rows that already landed.
+    void write(List<SupportMessage> batch);
+}
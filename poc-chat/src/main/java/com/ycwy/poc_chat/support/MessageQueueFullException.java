@@ -0,0 +1,8 @@
+package com.ycwy.poc_chat.support;
+
+public class MessageQueueFullException extends RuntimeException {
+
+    public MessageQueueFullException(String threadId) {
+        super("Message queue full, rejected message for thread " + threadId);
+    }
+}
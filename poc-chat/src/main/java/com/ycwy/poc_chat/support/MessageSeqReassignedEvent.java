@@ -0,0 +1,6 @@
+package com.ycwy.poc_chat.support;
+
+// A write-behind message stored under another seq than the one it was
+// broadcast with; published once the row is committed.
+public record MessageSeqReassignedEvent(SupportMessage message, long broadcastSeq) {
+}
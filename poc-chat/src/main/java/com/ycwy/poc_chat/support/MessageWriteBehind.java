@@ -0,0 +1,282 @@
+package com.ycwy.poc_chat.support;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Write-behind persistence for chat messages (chat.persistence.mode=write-behind).
+//
+// Guarantees:
+// - a message accepted by offer() already carries its final id and sentAt, so it
+//   can be broadcast right away; it reaches the database within roughly one
+//   flush interval under normal load;
+// - when the queue is full, offer() blocks the caller up to offer-timeout and then
+//   rejects the message, which must then be neither stored nor broadcast;
+// - a failed batch is retried with exponential backoff up to max-retries, then
+//   written row by row (one attempt each) so one bad row cannot sink the others;
+//   a duplicate key (seq taken by another node) is not retried, the batch goes
+//   row by row straight away and the writer stores the row under a new seq;
+//   rows that still fail are logged and counted as failed;
+// - on shutdown new messages are rejected and everything already queued is
+//   flushed before the datasource closes, bounded by shutdown-timeout.
+// Messages still queued when the JVM dies abruptly (kill -9, OOM) are lost, and
+// reads of the history may lag behind the broadcast by up to one flush.
+@Component
+@ConditionalOnProperty(name = "chat.persistence.mode", havingValue = "write-behind")
+public class MessageWriteBehind implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageWriteBehind.class);
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final MessageBatchWriter writer;
+    private final BlockingQueue<SupportMessage> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final long shutdownTimeoutMillis;
+
+    private volatile boolean accepting = true;
+    private volatile boolean running = true;
+    private Thread flusher;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    public MessageWriteBehind(
+            MessageBatchWriter writer,
+            @Value("${chat.persistence.queue-capacity:10000}") int queueCapacity,
+            @Value("${chat.persistence.batch-size:200}") int batchSize,
+            @Value("${chat.persistence.flush-interval-millis:50}") long flushIntervalMillis,
+            @Value("${chat.persistence.offer-timeout-millis:100}") long offerTimeoutMillis,
+            @Value("${chat.persistence.max-retries:5}") int maxRetries,
+            @Value("${chat.persistence.retry-backoff-millis:100}") long retryBackoffMillis,
+            @Value("${chat.persistence.shutdown-timeout-millis:10000}") long shutdownTimeoutMillis
+    ) {
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = new Thread(this::run, "message-write-behind");
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        accepting = false;
+        running = false;
+        if (flusher == null) {
+            return;
+        }
+        try {
+            flusher.join(shutdownTimeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive() || !queue.isEmpty()) {
+            log.error("Write-behind stopped with {} unflushed message(s)", queue.size());
+        }
+    }
+
+    public boolean offer(SupportMessage message) {
+        if (!accepting) {
+            rejected.increment();
+            return false;
+        }
+        boolean queued;
+        try {
+            queued = queue.offer(message, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        // Lost the race with stop(): take the message back unless the flusher already has it.
+        if (queued && !accepting && queue.remove(message)) {
+            queued = false;
+        }
+        if (queued) {
+            accepted.increment();
+        } else {
+            rejected.increment();
+        }
+        return queued;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public long acceptedCount() {
+        return accepted.sum();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public long writtenCount() {
+        return written.sum();
+    }
+
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    public long batchCount() {
+        return batches.sum();
+    }
+
+    public long retryCount() {
+        return retries.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.persistence.queue.depth", this, MessageWriteBehind::queueDepth).register(registry);
+        FunctionCounter.builder("chat.persistence.messages", this, MessageWriteBehind::acceptedCount)
+                .tag("outcome", "accepted").register(registry);
+        FunctionCounter.builder("chat.persistence.messages", this, MessageWriteBehind::rejectedCount)
+                .tag("outcome", "rejected").register(registry);
+        FunctionCounter.builder("chat.persistence.messages", this, MessageWriteBehind::writtenCount)
+                .tag("outcome", "written").register(registry);
+        FunctionCounter.builder("chat.persistence.messages", this, MessageWriteBehind::failedCount)
+                .tag("outcome", "failed").register(registry);
+        FunctionCounter.builder("chat.persistence.batches", this, MessageWriteBehind::batchCount).register(registry);
+        FunctionCounter.builder("chat.persistence.retries", this, MessageWriteBehind::retryCount).register(registry);
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            try {
+                List<SupportMessage> batch = nextBatch();
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (RuntimeException ex) {
+                log.error("Write-behind flusher error", ex);
+            }
+        }
+    }
+
+    private List<SupportMessage> nextBatch() {
+        List<SupportMessage> batch = new ArrayList<>(batchSize);
+        try {
+            SupportMessage first = poll(deadline());
+            if (first == null) {
+                return batch;
+            }
+            batch.add(first);
+            long deadline = deadline();
+            while (batch.size() < batchSize) {
+                queue.drainTo(batch, batchSize - batch.size());
+                if (batch.size() >= batchSize) {
+                    break;
+                }
+                SupportMessage next = poll(deadline);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+        } catch (InterruptedException ignored) {
+            // Flush what we have; stop() bounds how long we are waited for.
+        }
+        return batch;
+    }
+
+    // Waits in short slices so stop() is noticed without interrupting a write in progress.
+    private SupportMessage poll(long deadline) throws InterruptedException {
+        while (running) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            SupportMessage next = queue.poll(Math.min(remaining, MAX_WAIT_NANOS), TimeUnit.NANOSECONDS);
+            if (next != null) {
+                return next;
+            }
+        }
+        return queue.poll();
+    }
+
+    private long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    }
+
+    private void flush(List<SupportMessage> batch) {
+        batches.increment();
+        if (writeWithRetry(batch, maxRetries)) {
+            written.add(batch.size());
+            return;
+        }
+        if (batch.size() > 1) {
+            log.warn("Batch of {} messages keeps failing, writing rows one by one", batch.size());
+        }
+        for (SupportMessage message : batch) {
+            if (batch.size() > 1 && writeWithRetry(List.of(message), 0)) {
+                written.increment();
+                continue;
+            }
+            failed.increment();
+            log.error("Dropping message {} for thread {}", message.getId(), message.getThreadId());
+        }
+    }
+
+    private boolean writeWithRetry(List<SupportMessage> batch, int maxAttempts) {
+        long backoff = retryBackoffMillis;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                writer.write(batch);
+                return true;
+            } catch (RuntimeException ex) {
+                // A duplicate key fails again on every retry: no backoff.
+                if (attempt >= maxAttempts || ex instanceof DuplicateKeyException) {
+                    log.warn("Write of {} message(s) failed after {} retries", batch.size(), attempt, ex);
+                    return false;
+                }
+                retries.increment();
+                log.debug("Write of {} message(s) failed, retrying in {} ms", batch.size(), backoff, ex);
+                pause(backoff);
+                backoff = Math.min(backoff * 2, TimeUnit.SECONDS.toMillis(5));
+            }
+        }
+    }
+
+    // The flusher owns its thread: an interrupt must not cost us the batch in hand.
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) {
+            // Retry straight away.
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.ycwy.poc_chat.support;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+// Previous behaviour (chat.ids.strategy=random): UUIDv4, every insert lands on a
+// random page of the primary key and of the indexes that carry it.
+@Component
+@ConditionalOnProperty(name = "chat.ids.strategy", havingValue = "random")
+public class RandomIdGenerator implements IdGenerator {
+
+    @Override
+    public String newId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.ycwy.poc_chat.support;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+// How far a user has read a thread: the thread's message_count when they last
+// read it. Unread = support_threads.message_count - read_count, so no message
+// row is ever scanned to count unread messages.
+@Entity
+@Table(name = "support_read_watermarks")
+@IdClass(ReadWatermark.Key.class)
+public class ReadWatermark {
+
+    @Id
+    @Column(name = "user_id", length = 36)
+    private String userId;
+
+    @Id
+    @Column(name = "thread_id", length = 36)
+    private String threadId;
+
+    @Column(name = "read_count", nullable = false)
+    private long readCount;
+
+    @Column(name = "read_at", nullable = false)
+    private Instant readAt;
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getThreadId() {
+        return threadId;
+    }
+
+    public long getReadCount() {
+        return readCount;
+    }
+
+    public Instant getReadAt() {
+        return readAt;
+    }
+
+    public record Key(String userId, String threadId) implements Serializable {
+    }
+}
@@ -0,0 +1,56 @@
+package com.ycwy.poc_chat.support;
+
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface ReadWatermarkRepository extends JpaRepository<ReadWatermark, ReadWatermark.Key> {
+
+    // A sender has read the thread up to its own message: the watermark moves
+    // to the thread's count once its message is counted, less the messages
+    // stored after it in the same write (write-behind batches). Runs in the
+    // transaction that counts the message, so its own messages never show as unread.
+    String MARK_SENT = """
+            insert into support_read_watermarks (user_id, thread_id, read_count, read_at)
+            select :userId, t.id, t.message_count - :storedAfter, :readAt
+            from support_threads t
+            where t.id = :threadId
+            on duplicate key update
+                read_count = greatest(read_count, values(read_count)),
+                read_at = values(read_at)
+            """;
+
+    // Moves the watermark up to the thread's current message count in one
+    // statement; it never moves back (e.g. a stale tab marking read late).
+    // The declared table keeps Hibernate from clearing the whole second-level cache.
+    @Transactional
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "support_read_watermarks"))
+    @Query(value = """
+            insert into support_read_watermarks (user_id, thread_id, read_count, read_at)
+            select :userId, t.id, t.message_count, :readAt
+            from support_threads t
+            where t.id = :threadId
+            on duplicate key update
+                read_count = greatest(read_count, values(read_count)),
+                read_at = values(read_at)
+            """, nativeQuery = true)
+    int markRead(@Param("userId") String userId, @Param("threadId") String threadId, @Param("readAt") Instant readAt);
+
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "support_read_watermarks"))
+    @Query(value = MARK_SENT, nativeQuery = true)
+    int markSent(
+            @Param("userId") String userId,
+            @Param("threadId") String threadId,
+            @Param("storedAfter") long storedAfter,
+            @Param("readAt") Instant readAt
+    );
+}
@@ -4,15 +4,23 @@ import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Lob;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
 import jakarta.persistence.PrePersist;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import jakarta.persistence.UniqueConstraint;
+import org.springframework.data.domain.Persistable;
 
 import java.time.Instant;
 import java.util.UUID;
 
 @Entity
-@Table(name = "support_messages")
-public class SupportMessage {
+@Table(
+        name = "support_messages",
+        uniqueConstraints = @UniqueConstraint(name = "uq_msg_thread_seq", columnNames = {"thread_id", "seq"})
+)
+public class SupportMessage implements Persistable<String> {
 
     @Id
     @Column(length = 36)
@@ -21,6 +29,10 @@ public class SupportMessage {
     @Column(name = "sent_at", nullable = false)
     private Instant sentAt;
 
+    // Position in the thread, 1, 2, 3...; unique per thread (uq_msg_thread_seq).
+    @Column(nullable = false)
+    private Long seq;
+
     @Lob
     @Column(nullable = false)
     private String content;
@@ -31,6 +43,12 @@ public class SupportMessage {
     @Column(name = "sender_user_id", nullable = false, length = 36)
     private String senderUserId;
 
+    // The id is assigned before saving: Spring Data would take the entity for an
+    // existing row and merge it, which selects the row before every insert.
+    @Transient
+    private boolean isNew = true;
+
+    // SupportMessageService sets the id from IdGenerator first; this is only a fallback.
     @PrePersist
     void prePersist() {
         if (id == null || id.isBlank()) {
@@ -41,6 +59,18 @@ public class SupportMessage {
         }
     }
 
+    @PostPersist
+    @PostLoad
+    void markNotNew() {
+        isNew = false;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @Override
     public String getId() {
         return id;
     }
@@ -57,6 +87,14 @@ public class SupportMessage {
         this.sentAt = sentAt;
     }
 
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
     public String getContent() {
         return content;
     }
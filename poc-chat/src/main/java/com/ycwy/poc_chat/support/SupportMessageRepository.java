@@ -1,10 +1,78 @@
 package com.ycwy.poc_chat.support;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-import java.util.List;
+import java.time.Instant;
 
 public interface SupportMessageRepository extends JpaRepository<SupportMessage, String> {
-    List<SupportMessage> findByThreadIdOrderBySentAtAsc(String threadId);
     boolean existsByThreadId(String threadId);
+
+    // One probe of uq_msg_thread_seq.
+    @Query("select coalesce(max(m.seq), 0) from SupportMessage m where m.threadId = :threadId")
+    long findMaxSeq(@Param("threadId") String threadId);
+
+    // Gap fill after a reconnect: everything after the last seq the client holds.
+    @Query("""
+            select m from SupportMessage m
+            where m.threadId = :threadId
+              and m.seq > :afterSeq
+            order by m.seq asc
+            """)
+    Slice<SupportMessage> findAfterSeq(
+            @Param("threadId") String threadId,
+            @Param("afterSeq") long afterSeq,
+            Pageable pageable
+    );
+
+    // Keyset pages on idx_msg_thread_sent (thread_id, sent_at), id breaks ties.
+    @Query("""
+            select m from SupportMessage m
+            where m.threadId = :threadId
+            order by m.sentAt desc, m.id desc
+            """)
+    Slice<SupportMessage> findLatest(@Param("threadId") String threadId, Pageable pageable);
+
+    @Query("""
+            select m from SupportMessage m
+            where m.threadId = :threadId
+              and (m.sentAt < :sentAt or (m.sentAt = :sentAt and m.id < :id))
+            order by m.sentAt desc, m.id desc
+            """)
+    Slice<SupportMessage> findBefore(
+            @Param("threadId") String threadId,
+            @Param("sentAt") Instant sentAt,
+            @Param("id") String id,
+            Pageable pageable
+    );
+
+    @Query("""
+            select m from SupportMessage m
+            where m.threadId = :threadId
+              and (m.sentAt > :sentAt or (m.sentAt = :sentAt and m.id > :id))
+            order by m.sentAt asc, m.id asc
+            """)
+    Slice<SupportMessage> findAfter(
+            @Param("threadId") String threadId,
+            @Param("sentAt") Instant sentAt,
+            @Param("id") String id,
+            Pageable pageable
+    );
+
+    // Inclusive, so messages stored in the same millisecond as :since are not
+    // skipped; clients drop the ones they hold by id and page on with after=.
+    @Query("""
+            select m from SupportMessage m
+            where m.threadId = :threadId
+              and m.sentAt >= :since
+            order by m.sentAt asc, m.id asc
+            """)
+    Slice<SupportMessage> findSince(
+            @Param("threadId") String threadId,
+            @Param("since") Instant since,
+            Pageable pageable
+    );
 }
@@ -1,20 +1,113 @@
 package com.ycwy.poc_chat.support;
 
+import com.ycwy.poc_chat.search.MessageSearchIndex;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class SupportMessageService {
 
+    private static final int MAX_SEQ_ATTEMPTS = 3;
+
     private final SupportMessageRepository supportMessageRepository;
+    private final SupportThreadRepository supportThreadRepository;
+    private final ReadWatermarkRepository readWatermarkRepository;
+    private final ThreadStateCache threadStateCache;
+    private final IdGenerator idGenerator;
+    private final MessageWriteBehind writeBehind;
+    private final TransactionTemplate transactionTemplate;
+    private final MessageSearchIndex searchIndex;
 
-    public SupportMessageService(SupportMessageRepository supportMessageRepository) {
+    public SupportMessageService(
+            SupportMessageRepository supportMessageRepository,
+            SupportThreadRepository supportThreadRepository,
+            ReadWatermarkRepository readWatermarkRepository,
+            ThreadStateCache threadStateCache,
+            IdGenerator idGenerator,
+            ObjectProvider<MessageWriteBehind> writeBehind,
+            PlatformTransactionManager transactionManager,
+            MessageSearchIndex searchIndex
+    ) {
         this.supportMessageRepository = supportMessageRepository;
+        this.supportThreadRepository = supportThreadRepository;
+        this.readWatermarkRepository = readWatermarkRepository;
+        this.threadStateCache = threadStateCache;
+        this.idGenerator = idGenerator;
+        this.writeBehind = writeBehind.getIfAvailable();
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.searchIndex = searchIndex;
     }
 
-    @Transactional
+    // The seq comes from the thread's cached counter. Another node may have
+    // handed out the same one (relay mode): uq_msg_thread_seq rejects the row,
+    // the counter catches up with the database and the message gets a new seq.
     public SupportMessage save(SupportMessage message) {
-        return supportMessageRepository.save(message);
+        assignId(message);
+        for (int attempt = 1; ; attempt++) {
+            message.setSeq(threadStateCache.nextSeq(message.getThreadId()));
+            SupportMessage saved;
+            try {
+                saved = transactionTemplate.execute(status -> insert(message));
+            } catch (DataIntegrityViolationException ex) {
+                if (attempt >= MAX_SEQ_ATTEMPTS) {
+                    throw ex;
+                }
+                threadStateCache.resyncSeq(message.getThreadId());
+                continue;
+            }
+            index(saved);
+            return saved;
+        }
+    }
+
+    // The message row, the thread's activity columns and the sender's read
+    // watermark are written together.
+    private SupportMessage insert(SupportMessage message) {
+        SupportMessage saved = supportMessageRepository.saveAndFlush(message);
+        supportThreadRepository.recordMessages(
+                saved.getThreadId(), 1, saved.getSentAt(), saved.getSentAt(), saved.getSenderUserId());
+        readWatermarkRepository.markSent(saved.getSenderUserId(), saved.getThreadId(), 0, saved.getSentAt());
+        return saved;
+    }
+
+    // Chat hot path: stores synchronously, or queues the message when write-behind is enabled.
+    // The returned message always carries its final id, sentAt and seq.
+    public SupportMessage submit(SupportMessage message) {
+        if (writeBehind == null) {
+            return save(message);
+        }
+        assignId(message);
+        message.prePersist();
+        // A seq taken by a message the queue then refuses is left as a gap.
+        message.setSeq(threadStateCache.nextSeq(message.getThreadId()));
+        if (!writeBehind.offer(message)) {
+            throw new MessageQueueFullException(message.getThreadId());
+        }
+        // Searchable once queued, like it is visible to subscribers.
+        index(message);
+        return message;
+    }
+
+    // The index took the message with the seq it was broadcast with.
+    @TransactionalEventListener
+    public void onSeqReassigned(MessageSeqReassignedEvent event) {
+        index(event.message());
+    }
+
+    private void index(SupportMessage message) {
+        ThreadState thread = threadStateCache.get(message.getThreadId());
+        searchIndex.add(message, thread == null ? null : thread.createdByUserId());
+    }
+
+    private void assignId(SupportMessage message) {
+        if (message.getId() == null || message.getId().isBlank()) {
+            message.setId(idGenerator.newId());
+        }
     }
 
     @Transactional(readOnly = true)
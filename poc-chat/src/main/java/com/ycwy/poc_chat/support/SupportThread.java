@@ -3,13 +3,18 @@ package com.ycwy.poc_chat.support;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.hibernate.annotations.ColumnDefault;
+import org.springframework.data.domain.Persistable;
 
 import java.time.Instant;
 
 @Entity
 @Table(name = "support_threads")
-public class SupportThread {
+public class SupportThread implements Persistable<String> {
 
     @Id
     @Column(length = 36)
@@ -33,6 +38,37 @@ public class SupportThread {
     @Column(name = "assigned_support_user_id", length = 36)
     private String assignedSupportUserId;
 
+    // Activity columns are maintained in SQL on every message insert
+    // (SupportThreadRepository.RECORD_MESSAGES); saving the entity never writes them.
+    @Column(name = "first_message_at", insertable = false, updatable = false)
+    private Instant firstMessageAt;
+
+    @Column(name = "last_message_at", insertable = false, updatable = false)
+    private Instant lastMessageAt;
+
+    @ColumnDefault("0")
+    @Column(name = "message_count", nullable = false, insertable = false, updatable = false)
+    private long messageCount;
+
+    @Column(name = "last_sender_user_id", length = 36, insertable = false, updatable = false)
+    private String lastSenderUserId;
+
+    // New threads get their id from IdGenerator before saving; see SupportMessage.
+    @Transient
+    private boolean isNew = true;
+
+    @PostPersist
+    @PostLoad
+    void markNotNew() {
+        isNew = false;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @Override
     public String getId() {
         return id;
     }
@@ -88,4 +124,20 @@ public class SupportThread {
     public void setAssignedSupportUserId(String assignedSupportUserId) {
         this.assignedSupportUserId = assignedSupportUserId;
     }
+
+    public Instant getFirstMessageAt() {
+        return firstMessageAt;
+    }
+
+    public Instant getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public String getLastSenderUserId() {
+        return lastSenderUserId;
+    }
 }
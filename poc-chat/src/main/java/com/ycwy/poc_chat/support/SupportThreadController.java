@@ -1,30 +1,38 @@
 package com.ycwy.poc_chat.support;
 
 import com.ycwy.poc_chat.security.SecurityUtils;
+import com.ycwy.poc_chat.chat.BroadcastPublisher;
 import com.ycwy.poc_chat.chat.ChatMessage;
+import com.ycwy.poc_chat.chat.RecentMessageBuffer;
 import com.ycwy.poc_chat.support.dto.MessageDto;
 import com.ycwy.poc_chat.support.dto.SupportAgentDto;
 import com.ycwy.poc_chat.support.dto.ThreadDto;
-import com.ycwy.poc_chat.user.User;
+import com.ycwy.poc_chat.support.dto.ThreadUnreadDto;
+import com.ycwy.poc_chat.user.UserDirectory;
 import com.ycwy.poc_chat.user.UserRepository;
+import com.ycwy.poc_chat.user.UserSummary;
 import com.ycwy.poc_chat.reservation.Reservation;
 import com.ycwy.poc_chat.reservation.ReservationRepository;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.Instant;
-import java.util.UUID;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
@@ -36,68 +44,126 @@ import static org.springframework.http.HttpStatus.NOT_FOUND;
 @RequestMapping("/api/threads")
 public class SupportThreadController {
 
+    public static final String HAS_MORE_HEADER = "X-Has-More";
+
+    @Value("${chat.messages.page-size:100}")
+    private int defaultPageSize;
+
+    @Value("${chat.messages.max-page-size:500}")
+    private int maxPageSize;
+
+    @Value("${chat.threads.page-size:100}")
+    private int defaultThreadPageSize;
+
+    @Value("${chat.threads.max-page-size:500}")
+    private int maxThreadPageSize;
+
     private final SupportThreadRepository threadRepository;
     private final SupportMessageRepository messageRepository;
+    private final SupportMessageService supportMessageService;
     private final UserRepository userRepository;
+    private final UserDirectory userDirectory;
+    private final ThreadStateCache threadStateCache;
     private final ReservationRepository reservationRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final ReadWatermarkRepository readWatermarkRepository;
+    private final BroadcastPublisher broadcasts;
+    private final UnreadNotifier unreadNotifier;
+    private final IdGenerator idGenerator;
+    private final RecentMessageBuffer recentMessages;
+    private final ThreadUpdatePublisher threadUpdates;
 
     public SupportThreadController(
             SupportThreadRepository threadRepository,
             SupportMessageRepository messageRepository,
+            SupportMessageService supportMessageService,
             UserRepository userRepository,
+            UserDirectory userDirectory,
+            ThreadStateCache threadStateCache,
             ReservationRepository reservationRepository,
-            SimpMessagingTemplate messagingTemplate
+            ReadWatermarkRepository readWatermarkRepository,
+            BroadcastPublisher broadcasts,
+            UnreadNotifier unreadNotifier,
+            IdGenerator idGenerator,
+            RecentMessageBuffer recentMessages,
+            ThreadUpdatePublisher threadUpdates
     ) {
         this.threadRepository = threadRepository;
         this.messageRepository = messageRepository;
+        this.supportMessageService = supportMessageService;
         this.userRepository = userRepository;
+        this.userDirectory = userDirectory;
+        this.threadStateCache = threadStateCache;
         this.reservationRepository = reservationRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.readWatermarkRepository = readWatermarkRepository;
+        this.broadcasts = broadcasts;
+        this.unreadNotifier = unreadNotifier;
+        this.idGenerator = idGenerator;
+        this.recentMessages = recentMessages;
+        this.threadUpdates = threadUpdates;
     }
 
+    // sort=created (default) or sort=activity (latest message first); before= is the
+    // id of the last thread of the previous page.
     @GetMapping
-    public List<ThreadDto> listThreads() {
+    public ResponseEntity<List<ThreadDto>> listThreads(
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) Integer limit
+    ) {
         String role = SecurityUtils.currentRole();
         String userId = SecurityUtils.currentUserId();
-        List<SupportThread> threads;
-        if ("CLIENT".equals(role)) {
-            threads = threadRepository.findByCreatedByUserIdOrderByCreatedAtDesc(userId);
+        int size = limit == null ? defaultThreadPageSize : limit;
+        if (size < 1 || size > maxThreadPageSize) {
+            throw new ResponseStatusException(BAD_REQUEST, "Limit must be between 1 and " + maxThreadPageSize);
+        }
+        boolean byActivity;
+        if (sort == null || sort.isBlank() || "created".equalsIgnoreCase(sort)) {
+            byActivity = false;
+        } else if ("activity".equalsIgnoreCase(sort)) {
+            byActivity = true;
         } else {
-            threads = threadRepository.findVisibleToSupport(userId);
+            throw new ResponseStatusException(BAD_REQUEST, "Sort must be created or activity");
         }
-
-        Set<String> userIds = threads.stream()
-                .flatMap(thread -> {
-                    if (thread.getAssignedSupportUserId() == null) {
-                        return java.util.stream.Stream.of(thread.getCreatedByUserId());
-                    }
-                    return java.util.stream.Stream.of(thread.getCreatedByUserId(), thread.getAssignedSupportUserId());
-                })
-                .collect(Collectors.toSet());
-        Map<String, User> users = loadUsers(userIds);
-
-        return threads.stream()
-                .map(thread -> {
-                    User user = users.get(thread.getCreatedByUserId());
-                    User assignedSupport = thread.getAssignedSupportUserId() == null
-                            ? null
-                            : users.get(thread.getAssignedSupportUserId());
-                    return new ThreadDto(
-                            thread.getId(),
-                            thread.getSubject(),
-                            thread.getStatus(),
-                            thread.getCreatedAt(),
-                            thread.getCreatedByUserId(),
-                            displayName(user),
-                            user == null ? null : user.getEmail(),
-                            thread.getReservationId(),
-                            thread.getAssignedSupportUserId(),
-                            displayName(assignedSupport),
-                            assignedSupport == null ? null : assignedSupport.getEmail()
-                    );
-                })
-                .toList();
+        Pageable page = PageRequest.of(0, size);
+        String statusFilter = status == null || status.isBlank() ? null : status.trim().toUpperCase(Locale.ROOT);
+        boolean client = "CLIENT".equals(role);
+
+        Slice<ThreadDto> slice;
+        if (before == null) {
+            if (client) {
+                slice = byActivity
+                        ? threadRepository.findClientThreadsByActivity(userId, statusFilter, page)
+                        : threadRepository.findClientThreads(userId, statusFilter, page);
+            } else {
+                slice = byActivity
+                        ? threadRepository.findSupportThreadsByActivity(userId, statusFilter, page)
+                        : threadRepository.findSupportThreads(userId, statusFilter, page);
+            }
+        } else {
+            SupportThread cursor = threadRepository.findById(before)
+                    .orElseThrow(() -> new ResponseStatusException(BAD_REQUEST, "Unknown cursor"));
+            if (client) {
+                slice = byActivity
+                        ? threadRepository.findClientThreadsByActivityBefore(userId, statusFilter,
+                                cursor.getLastMessageAt() == null ? cursor.getCreatedAt() : cursor.getLastMessageAt(),
+                                cursor.getId(), page)
+                        : threadRepository.findClientThreadsBefore(userId, statusFilter,
+                                cursor.getCreatedAt(), cursor.getId(), page);
+            } else {
+                if (byActivity && cursor.getLastMessageAt() == null) {
+                    throw new ResponseStatusException(BAD_REQUEST, "Unknown cursor");
+                }
+                slice = byActivity
+                        ? threadRepository.findSupportThreadsByActivityBefore(userId, statusFilter,
+                                cursor.getLastMessageAt(), cursor.getId(), page)
+                        : threadRepository.findSupportThreadsBefore(userId, statusFilter,
+                                cursor.getCreatedAt(), cursor.getId(), page);
+            }
+        }
+        return ResponseEntity.ok()
+                .header(HAS_MORE_HEADER, String.valueOf(slice.hasNext()))
+                .body(slice.getContent());
     }
 
     @PostMapping
@@ -125,7 +191,7 @@ public class SupportThreadController {
         }
 
         SupportThread thread = new SupportThread();
-        thread.setId(UUID.randomUUID().toString());
+        thread.setId(idGenerator.newId());
         thread.setCreatedAt(Instant.now());
         thread.setSubject(subject.trim());
         thread.setStatus("OPEN");
@@ -133,22 +199,24 @@ public class SupportThreadController {
         thread.setReservationId(reservationId);
         thread.setAssignedSupportUserId(null);
         SupportThread saved = threadRepository.save(thread);
+        threadStateCache.created(saved);
 
-        User user = userRepository.findById(userId).orElse(null);
+        UserSummary user = userDirectory.find(userId);
         ThreadDto dto = new ThreadDto(
                 saved.getId(),
                 saved.getSubject(),
                 saved.getStatus(),
                 saved.getCreatedAt(),
                 saved.getCreatedByUserId(),
-                displayName(user),
-                user == null ? null : user.getEmail(),
+                user == null ? null : user.displayName(),
+                user == null ? null : user.email(),
                 saved.getReservationId(),
                 saved.getAssignedSupportUserId(),
                 null,
-                null
+                null,
+                0L
         );
-        publishThreadUpdate(dto, false);
+        threadUpdates.publish(dto, null, false);
         return dto;
     }
 
@@ -171,8 +239,9 @@ public class SupportThreadController {
         }
         thread.setStatus("CLOSED");
         SupportThread saved = threadRepository.save(thread);
+        threadStateCache.updated(saved);
         ThreadDto dto = toDto(saved);
-        publishThreadUpdate(dto, true);
+        threadUpdates.publish(dto, assigned, true);
         return dto;
     }
 
@@ -185,7 +254,8 @@ public class SupportThreadController {
         String userId = SecurityUtils.currentUserId();
         SupportThread thread = threadRepository.findById(threadId)
                 .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "Thread not found"));
-        if (!messageRepository.existsByThreadId(threadId)) {
+        ThreadState state = threadStateCache.get(threadId);
+        if (state == null || !state.hasMessages()) {
             throw new ResponseStatusException(BAD_REQUEST, "No messages yet");
         }
         String assigned = thread.getAssignedSupportUserId();
@@ -195,8 +265,9 @@ public class SupportThreadController {
         if (assigned == null || !assigned.equals(userId)) {
             thread.setAssignedSupportUserId(userId);
             SupportThread saved = threadRepository.save(thread);
+            threadStateCache.updated(saved);
             ThreadDto dto = toDto(saved);
-            publishThreadUpdate(dto, true);
+            threadUpdates.publish(dto, assigned, true);
             publishClaimMessage(saved, userId);
             return dto;
         }
@@ -226,117 +297,156 @@ public class SupportThreadController {
         if (targetSupportId.equals(userId)) {
             throw new ResponseStatusException(BAD_REQUEST, "Cannot transfer to self");
         }
-        User target = userRepository.findById(targetSupportId)
-                .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "Support user not found"));
-        if (!"SUPPORT".equalsIgnoreCase(target.getRole())) {
+        UserSummary target = userDirectory.find(targetSupportId);
+        if (target == null) {
+            throw new ResponseStatusException(NOT_FOUND, "Support user not found");
+        }
+        if (!"SUPPORT".equalsIgnoreCase(target.role())) {
             throw new ResponseStatusException(BAD_REQUEST, "Target is not support");
         }
 
         thread.setAssignedSupportUserId(targetSupportId);
         SupportThread saved = threadRepository.save(thread);
+        threadStateCache.updated(saved);
         ThreadDto dto = toDto(saved);
-        publishThreadUpdate(dto, true);
+        threadUpdates.publish(dto, assigned, true);
         publishTransferMessage(saved, userId, target);
         return dto;
     }
 
+    // Read receipt: everything currently in the thread counts as read for the
+    // caller. Other sessions of the same user are told through their user topic.
+    @PostMapping("/{threadId}/read")
+    public ResponseEntity<Void> markRead(@PathVariable String threadId) {
+        String userId = SecurityUtils.currentUserId();
+        ThreadState thread = threadStateCache.get(threadId);
+        if (thread == null) {
+            throw new ResponseStatusException(NOT_FOUND, "Thread not found");
+        }
+        if (!thread.canAccess(userId, SecurityUtils.currentRole())) {
+            throw new ResponseStatusException(FORBIDDEN, "Not allowed");
+        }
+        readWatermarkRepository.markRead(userId, threadId, Instant.now());
+        broadcasts.publish(new ThreadUnreadDto(threadId, 0, true), ThreadTopics.userThreads(userId));
+        return ResponseEntity.noContent().build();
+    }
+
     @GetMapping("/support-users")
     public List<SupportAgentDto> listSupportAgents() {
         return userRepository.findByRole("SUPPORT").stream()
-                .map(user -> new SupportAgentDto(user.getId(), displayName(user), user.getEmail()))
+                .map(user -> new SupportAgentDto(user.getId(), UserSummary.displayName(user), user.getEmail()))
                 .toList();
     }
 
     @GetMapping("/{threadId}/messages")
-    public List<MessageDto> listMessages(@PathVariable String threadId) {
-        SupportThread thread = threadRepository.findById(threadId)
-                .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "Thread not found"));
-        if (!canAccessThread(thread)) {
+    public ResponseEntity<List<MessageDto>> listMessages(
+            @PathVariable String threadId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Instant since,
+            @RequestParam(required = false) Long afterSeq,
+            @RequestParam(required = false) Integer limit
+    ) {
+        ThreadState thread = threadStateCache.get(threadId);
+        if (thread == null) {
+            throw new ResponseStatusException(NOT_FOUND, "Thread not found");
+        }
+        if (!thread.canAccess(SecurityUtils.currentUserId(), SecurityUtils.currentRole())) {
             throw new ResponseStatusException(FORBIDDEN, "Not allowed");
         }
+        if ((before != null ? 1 : 0) + (after != null ? 1 : 0) + (since != null ? 1 : 0)
+                + (afterSeq != null ? 1 : 0) > 1) {
+            throw new ResponseStatusException(BAD_REQUEST, "Use only one of before, after, since or afterSeq");
+        }
+        int size = limit == null ? defaultPageSize : limit;
+        if (size < 1 || size > maxPageSize) {
+            throw new ResponseStatusException(BAD_REQUEST, "Limit must be between 1 and " + maxPageSize);
+        }
+        Pageable page = PageRequest.of(0, size);
+
+        Slice<SupportMessage> slice;
+        boolean newestFirst;
+        if (afterSeq != null) {
+            // Gap fill: the client knows the last seq it holds.
+            slice = messageRepository.findAfterSeq(threadId, afterSeq, page);
+            newestFirst = false;
+        } else if (after != null) {
+            SupportMessage cursor = loadCursor(threadId, after);
+            slice = messageRepository.findAfter(threadId, cursor.getSentAt(), cursor.getId(), page);
+            newestFirst = false;
+        } else if (since != null) {
+            // Only the first page: the next ones continue from the last message with after=.
+            slice = messageRepository.findSince(threadId, since, page);
+            newestFirst = false;
+        } else if (before != null) {
+            SupportMessage cursor = loadCursor(threadId, before);
+            slice = messageRepository.findBefore(threadId, cursor.getSentAt(), cursor.getId(), page);
+            newestFirst = true;
+        } else {
+            slice = messageRepository.findLatest(threadId, page);
+            newestFirst = true;
+        }
 
-        List<SupportMessage> messages = messageRepository.findByThreadIdOrderBySentAtAsc(threadId);
-        Map<String, User> users = loadUsers(messages.stream()
+        List<SupportMessage> messages = new ArrayList<>(slice.getContent());
+        if (newestFirst) {
+            Collections.reverse(messages);
+        }
+        Map<String, UserSummary> users = userDirectory.findAll(messages.stream()
                 .map(SupportMessage::getSenderUserId)
                 .collect(Collectors.toSet()));
 
-        return messages.stream()
-                .sorted(Comparator.comparing(SupportMessage::getSentAt))
+        List<MessageDto> body = messages.stream()
                 .map(message -> {
-                    User user = users.get(message.getSenderUserId());
+                    UserSummary user = users.get(message.getSenderUserId());
                     return new MessageDto(
                             message.getId(),
+                            message.getSeq(),
                             message.getContent(),
                             message.getSentAt(),
                             message.getThreadId(),
                             message.getSenderUserId(),
-                            displayName(user),
-                            user == null ? null : user.getEmail()
+                            user == null ? null : user.displayName(),
+                            user == null ? null : user.email()
                     );
                 })
                 .toList();
+        return ResponseEntity.ok()
+                .header(HAS_MORE_HEADER, String.valueOf(slice.hasNext()))
+                .body(body);
     }
 
-    private boolean canAccessThread(SupportThread thread) {
-        String role = SecurityUtils.currentRole();
-        String userId = SecurityUtils.currentUserId();
-        if ("SUPPORT".equals(role)) {
-            String assigned = thread.getAssignedSupportUserId();
-            return assigned == null || assigned.equals(userId);
-        }
-        return "CLIENT".equals(role) && thread.getCreatedByUserId().equals(userId);
-    }
-
-    private Map<String, User> loadUsers(Set<String> userIds) {
-        if (userIds.isEmpty()) {
-            return new HashMap<>();
-        }
-        return userRepository.findAllById(userIds).stream()
-                .collect(Collectors.toMap(User::getId, user -> user));
-    }
-
-    private String displayName(User user) {
-        if (user == null) {
-            return null;
+    private SupportMessage loadCursor(String threadId, String messageId) {
+        SupportMessage cursor = messageRepository.findById(messageId).orElse(null);
+        if (cursor == null || !threadId.equals(cursor.getThreadId())) {
+            throw new ResponseStatusException(BAD_REQUEST, "Unknown cursor");
         }
-        String first = user.getFirstName();
-        String last = user.getLastName();
-        String full = (first + " " + last).trim();
-        return full.isEmpty() ? user.getEmail() : full;
+        return cursor;
     }
 
     private ThreadDto toDto(SupportThread thread) {
-        User user = userRepository.findById(thread.getCreatedByUserId()).orElse(null);
-        User assignedSupport = thread.getAssignedSupportUserId() == null
-                ? null
-                : userRepository.findById(thread.getAssignedSupportUserId()).orElse(null);
+        UserSummary user = userDirectory.find(thread.getCreatedByUserId());
+        UserSummary assignedSupport = userDirectory.find(thread.getAssignedSupportUserId());
         return new ThreadDto(
                 thread.getId(),
                 thread.getSubject(),
                 thread.getStatus(),
                 thread.getCreatedAt(),
                 thread.getCreatedByUserId(),
-                displayName(user),
-                user == null ? null : user.getEmail(),
+                user == null ? null : user.displayName(),
+                user == null ? null : user.email(),
                 thread.getReservationId(),
                 thread.getAssignedSupportUserId(),
-                displayName(assignedSupport),
-                assignedSupport == null ? null : assignedSupport.getEmail()
+                assignedSupport == null ? null : assignedSupport.displayName(),
+                assignedSupport == null ? null : assignedSupport.email(),
+                null
         );
     }
 
-    private void publishThreadUpdate(ThreadDto dto, boolean publishForSupport) {
-        if (publishForSupport) {
-            messagingTemplate.convertAndSend("/topic/threads", dto);
-        }
-        messagingTemplate.convertAndSend("/topic/users/" + dto.createdByUserId() + "/threads", dto);
-    }
-
     private void publishClaimMessage(SupportThread thread, String supportUserId) {
-        User supportUser = userRepository.findById(supportUserId).orElse(null);
-        String supportName = displayName(supportUser);
+        UserSummary supportUser = userDirectory.find(supportUserId);
+        String supportName = supportUser == null ? null : supportUser.displayName();
         String label = supportName == null || supportName.isBlank()
-                ? (supportUser == null ? "un agent" : supportUser.getEmail())
+                ? (supportUser == null ? "un agent" : supportUser.email())
                 : supportName;
         String content = "Votre ticket a ete pris en charge par " + label + ".";
 
@@ -344,26 +454,31 @@ public class SupportThreadController {
         supportMessage.setContent(content);
         supportMessage.setThreadId(thread.getId());
         supportMessage.setSenderUserId(supportUserId);
-        SupportMessage saved = messageRepository.save(supportMessage);
+        SupportMessage saved = supportMessageService.save(supportMessage);
 
         ChatMessage payload = new ChatMessage(
+                saved.getId(),
+                saved.getSeq(),
                 saved.getContent(),
                 saved.getSentAt(),
                 saved.getThreadId(),
                 saved.getSenderUserId(),
                 supportName,
-                supportUser == null ? null : supportUser.getEmail()
+                supportUser == null ? null : supportUser.email()
         );
-        messagingTemplate.convertAndSend("/topic/threads/" + thread.getId(), payload);
+        recentMessages.record(payload);
+        broadcasts.publish(payload, ThreadTopics.thread(thread.getId()));
+        unreadNotifier.messageAdded(
+                thread.getId(), thread.getCreatedByUserId(), thread.getAssignedSupportUserId(), supportUserId);
     }
 
-    private void publishTransferMessage(SupportThread thread, String fromSupportUserId, User targetSupport) {
-        User fromSupport = userRepository.findById(fromSupportUserId).orElse(null);
-        String targetLabel = displayName(targetSupport);
-        targetLabel = targetLabel == null || targetLabel.isBlank() ? targetSupport.getEmail() : targetLabel;
-        String fromLabel = displayName(fromSupport);
+    private void publishTransferMessage(SupportThread thread, String fromSupportUserId, UserSummary targetSupport) {
+        UserSummary fromSupport = userDirectory.find(fromSupportUserId);
+        String targetLabel = targetSupport.displayName();
+        targetLabel = targetLabel == null || targetLabel.isBlank() ? targetSupport.email() : targetLabel;
+        String fromLabel = fromSupport == null ? null : fromSupport.displayName();
         fromLabel = fromLabel == null || fromLabel.isBlank()
-                ? (fromSupport == null ? "Support" : fromSupport.getEmail())
+                ? (fromSupport == null ? "Support" : fromSupport.email())
                 : fromLabel;
         String content = "Votre ticket a ete transfere a " + targetLabel + ".";
 
@@ -371,17 +486,22 @@ public class SupportThreadController {
         supportMessage.setContent(content);
         supportMessage.setThreadId(thread.getId());
         supportMessage.setSenderUserId(fromSupportUserId);
-        SupportMessage saved = messageRepository.save(supportMessage);
+        SupportMessage saved = supportMessageService.save(supportMessage);
 
         ChatMessage payload = new ChatMessage(
+                saved.getId(),
+                saved.getSeq(),
                 saved.getContent(),
                 saved.getSentAt(),
                 saved.getThreadId(),
                 saved.getSenderUserId(),
                 fromLabel,
-                fromSupport == null ? null : fromSupport.getEmail()
+                fromSupport == null ? null : fromSupport.email()
         );
-        messagingTemplate.convertAndSend("/topic/threads/" + thread.getId(), payload);
+        recentMessages.record(payload);
+        broadcasts.publish(payload, ThreadTopics.thread(thread.getId()));
+        unreadNotifier.messageAdded(
+                thread.getId(), thread.getCreatedByUserId(), thread.getAssignedSupportUserId(), fromSupportUserId);
     }
 
     public record CreateThreadRequest(String subject, String reservationId) {
@@ -1,19 +1,170 @@
 package com.ycwy.poc_chat.support;
 
+import com.ycwy.poc_chat.support.dto.ThreadDto;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
-import java.util.List;
+import java.time.Instant;
 
 public interface SupportThreadRepository extends JpaRepository<SupportThread, String> {
-    List<SupportThread> findByCreatedByUserIdOrderByCreatedAtDesc(String userId);
 
-    @Query("""
-            select t from SupportThread t
-            where exists (select 1 from SupportMessage m where m.threadId = t.id)
+    // Folds a group of new messages of one thread into its activity columns:
+    // count, first sender time, last message time and who sent it. Messages may
+    // land out of order (write-behind batches), hence the comparisons. MariaDB
+    // applies SET clauses left to right, so last_sender_user_id must come before
+    // last_message_at to compare against the old value.
+    String RECORD_MESSAGES = """
+            update support_threads
+            set message_count = message_count + :count,
+                first_message_at = case when first_message_at is null or first_message_at > :firstAt
+                                        then :firstAt else first_message_at end,
+                last_sender_user_id = case when last_message_at is null or last_message_at <= :lastAt
+                                           then :lastSender else last_sender_user_id end,
+                last_message_at = case when last_message_at is null or last_message_at < :lastAt
+                                       then :lastAt else last_message_at end
+            where id = :threadId
+            """;
+
+    // A native update without declared tables would clear the whole second-level cache.
+    @Modifying
+    @Query(value = RECORD_MESSAGES, nativeQuery = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "support_threads"))
+    int recordMessages(
+            @Param("threadId") String threadId,
+            @Param("count") int count,
+            @Param("firstAt") Instant firstAt,
+            @Param("lastAt") Instant lastAt,
+            @Param("lastSender") String lastSender
+    );
+
+    // Thread listings are read straight into ThreadDto: one query joining the
+    // creator, the assignee and the caller's read watermark, no entities in the
+    // session. Display names follow UserSummary.displayName.
+    String THREAD_DTO_SELECT = """
+            select new com.ycwy.poc_chat.support.dto.ThreadDto(
+                t.id, t.subject, t.status, t.createdAt, t.createdByUserId,
+                case when trim(concat(c.firstName, ' ', c.lastName)) = '' then c.email
+                     else trim(concat(c.firstName, ' ', c.lastName)) end,
+                c.email,
+                t.reservationId, t.assignedSupportUserId,
+                case when trim(concat(a.firstName, ' ', a.lastName)) = '' then a.email
+                     else trim(concat(a.firstName, ' ', a.lastName)) end,
+                a.email,
+                t.messageCount - coalesce(w.readCount, 0))
+            from SupportThread t
+            left join User c on c.id = t.createdByUserId
+            left join User a on a.id = t.assignedSupportUserId
+            left join ReadWatermark w on w.threadId = t.id and w.userId = :userId
+            """;
+
+    String CLIENT_THREADS = """
+            where t.createdByUserId = :userId
+              and (:status is null or t.status = :status)
+            """;
+
+    // Threads show up for support once they have a message: a range scan on
+    // idx_threads_activity instead of a per-thread exists over support_messages.
+    String SUPPORT_THREADS = """
+            where t.lastMessageAt is not null
               and (t.assignedSupportUserId is null or t.assignedSupportUserId = :userId)
-            order by t.createdAt desc
-            """)
-    List<SupportThread> findVisibleToSupport(@Param("userId") String userId);
+              and (:status is null or t.status = :status)
+            """;
+
+    // Keyset pages, newest first; id breaks ties.
+    String BEFORE_CREATED = """
+              and (t.createdAt < :at or (t.createdAt = :at and t.id < :id))
+            """;
+
+    String NEWEST_CREATED_FIRST = """
+            order by t.createdAt desc, t.id desc
+            """;
+
+    String BEFORE_ACTIVITY = """
+              and (t.lastMessageAt < :at or (t.lastMessageAt = :at and t.id < :id))
+            """;
+
+    String LATEST_ACTIVITY_FIRST = """
+            order by t.lastMessageAt desc, t.id desc
+            """;
+
+    // A client's own threads may have no message yet; they rank by creation time.
+    String CLIENT_BEFORE_ACTIVITY = """
+              and (coalesce(t.lastMessageAt, t.createdAt) < :at
+                   or (coalesce(t.lastMessageAt, t.createdAt) = :at and t.id < :id))
+            """;
+
+    String CLIENT_LATEST_ACTIVITY_FIRST = """
+            order by coalesce(t.lastMessageAt, t.createdAt) desc, t.id desc
+            """;
+
+    @Query(THREAD_DTO_SELECT + CLIENT_THREADS + NEWEST_CREATED_FIRST)
+    Slice<ThreadDto> findClientThreads(
+            @Param("userId") String userId,
+            @Param("status") String status,
+            Pageable pageable
+    );
+
+    @Query(THREAD_DTO_SELECT + CLIENT_THREADS + BEFORE_CREATED + NEWEST_CREATED_FIRST)
+    Slice<ThreadDto> findClientThreadsBefore(
+            @Param("userId") String userId,
+            @Param("status") String status,
+            @Param("at") Instant createdAt,
+            @Param("id") String id,
+            Pageable pageable
+    );
+
+    @Query(THREAD_DTO_SELECT + CLIENT_THREADS + CLIENT_LATEST_ACTIVITY_FIRST)
+    Slice<ThreadDto> findClientThreadsByActivity(
+            @Param("userId") String userId,
+            @Param("status") String status,
+            Pageable pageable
+    );
+
+    @Query(THREAD_DTO_SELECT + CLIENT_THREADS + CLIENT_BEFORE_ACTIVITY + CLIENT_LATEST_ACTIVITY_FIRST)
+    Slice<ThreadDto> findClientThreadsByActivityBefore(
+            @Param("userId") String userId,
+            @Param("status") String status,
+            @Param("at") Instant activityAt,
+            @Param("id") String id,
+            Pageable pageable
+    );
+
+    @Query(THREAD_DTO_SELECT + SUPPORT_THREADS + NEWEST_CREATED_FIRST)
+    Slice<ThreadDto> findSupportThreads(
+            @Param("userId") String userId,
+            @Param("status") String status,
+            Pageable pageable
+    );
+
+    @Query(THREAD_DTO_SELECT + SUPPORT_THREADS + BEFORE_CREATED + NEWEST_CREATED_FIRST)
+    Slice<ThreadDto> findSupportThreadsBefore(
+            @Param("userId") String userId,
+            @Param("status") String status,
+            @Param("at") Instant createdAt,
+            @Param("id") String id,
+            Pageable pageable
+    );
+
+    @Query(THREAD_DTO_SELECT + SUPPORT_THREADS + LATEST_ACTIVITY_FIRST)
+    Slice<ThreadDto> findSupportThreadsByActivity(
+            @Param("userId") String userId,
+            @Param("status") String status,
+            Pageable pageable
+    );
+
+    @Query(THREAD_DTO_SELECT + SUPPORT_THREADS + BEFORE_ACTIVITY + LATEST_ACTIVITY_FIRST)
+    Slice<ThreadDto> findSupportThreadsByActivityBefore(
+            @Param("userId") String userId,
+            @Param("status") String status,
+            @Param("at") Instant activityAt,
+            @Param("id") String id,
+            Pageable pageable
+    );
 }
@@ -0,0 +1,61 @@
+package com.ycwy.poc_chat.support;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+public record ThreadState(
+        String id,
+        String subject,
+        String status,
+        Instant createdAt,
+        String createdByUserId,
+        String reservationId,
+        String assignedSupportUserId,
+        boolean hasMessages,
+        // Last message seq handed out; shared by every copy of this thread's state.
+        AtomicLong lastSeq
+) {
+
+    public static ThreadState of(SupportThread thread, boolean hasMessages, AtomicLong lastSeq) {
+        return new ThreadState(
+                thread.getId(),
+                thread.getSubject(),
+                thread.getStatus(),
+                thread.getCreatedAt(),
+                thread.getCreatedByUserId(),
+                thread.getReservationId(),
+                thread.getAssignedSupportUserId(),
+                hasMessages,
+                lastSeq
+        );
+    }
+
+    public boolean isClosed() {
+        return "CLOSED".equalsIgnoreCase(status);
+    }
+
+    public boolean isAssignedTo(String userId) {
+        return assignedSupportUserId != null && assignedSupportUserId.equals(userId);
+    }
+
+    public boolean canAccess(String userId, String role) {
+        if ("SUPPORT".equals(role)) {
+            return assignedSupportUserId == null || assignedSupportUserId.equals(userId);
+        }
+        return "CLIENT".equals(role) && createdByUserId.equals(userId);
+    }
+
+    ThreadState withMessages() {
+        return hasMessages ? this : new ThreadState(
+                id,
+                subject,
+                status,
+                createdAt,
+                createdByUserId,
+                reservationId,
+                assignedSupportUserId,
+                true,
+                lastSeq
+        );
+    }
+}
@@ -0,0 +1,148 @@
+package com.ycwy.poc_chat.support;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Write-through cache of thread routing state. Every thread mutation goes
+// through SupportThreadController, which pushes the saved entity here, so
+// the chat hot path can check access without touching the database.
+// Changes are also published as ThreadStateChangedEvent so other nodes can
+// drop their copy when the broker runs in relay mode.
+//
+// Each entry also carries the thread's message sequence counter, so a seq is
+// handed out with one incrementAndGet on that thread only. The counter is
+// seeded from the highest seq stored for the thread; the unique
+// (thread_id, seq) index catches a stale counter, see SupportMessageService.
+@Service
+public class ThreadStateCache implements MeterBinder {
+
+    private final SupportThreadRepository threadRepository;
+    private final SupportMessageRepository messageRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Cache<String, ThreadState> cache;
+    // Counters of recently dropped entries: write-behind messages that already
+    // took a seq may not be in the database yet when the entry is reloaded.
+    private final Cache<String, AtomicLong> retiredSeqs = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofMinutes(1))
+            .build();
+
+    public ThreadStateCache(
+            SupportThreadRepository threadRepository,
+            SupportMessageRepository messageRepository,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${chat.threads.cache.max-size:50000}") long maxSize
+    ) {
+        this.threadRepository = threadRepository;
+        this.messageRepository = messageRepository;
+        this.eventPublisher = eventPublisher;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .evictionListener((String id, ThreadState state, RemovalCause cause) -> {
+                    if (id != null && state != null) {
+                        retiredSeqs.put(id, state.lastSeq());
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public ThreadState get(String threadId) {
+        if (threadId == null) {
+            return null;
+        }
+        return cache.get(threadId, this::load);
+    }
+
+    public void created(SupportThread thread) {
+        cache.put(thread.getId(), ThreadState.of(thread, false, new AtomicLong()));
+    }
+
+    public ThreadState getIfPresent(String threadId) {
+        return cache.getIfPresent(threadId);
+    }
+
+    public void updated(SupportThread thread) {
+        cache.asMap().compute(thread.getId(), (id, current) -> current == null
+                ? null
+                : ThreadState.of(thread, current.hasMessages(), current.lastSeq()));
+        eventPublisher.publishEvent(new ThreadStateChangedEvent(thread.getId()));
+    }
+
+    // Returns true only for the caller that flipped the thread from empty to non-empty.
+    public boolean markHasMessages(String threadId) {
+        AtomicBoolean first = new AtomicBoolean();
+        ThreadState state = cache.asMap().computeIfPresent(threadId, (id, current) -> {
+            first.set(!current.hasMessages());
+            return current.withMessages();
+        });
+        if (state == null) {
+            // Evicted since the access check: reload, then flip the fresh entry.
+            return get(threadId) != null && markHasMessages(threadId);
+        }
+        if (first.get()) {
+            eventPublisher.publishEvent(new ThreadStateChangedEvent(threadId));
+        }
+        return first.get();
+    }
+
+    public long nextSeq(String threadId) {
+        ThreadState state = get(threadId);
+        if (state == null) {
+            throw new IllegalArgumentException("Unknown thread " + threadId);
+        }
+        return state.lastSeq().incrementAndGet();
+    }
+
+    // Another writer (usually another node) took seqs this counter did not see.
+    public void resyncSeq(String threadId) {
+        ThreadState state = getIfPresent(threadId);
+        if (state != null) {
+            state.lastSeq().accumulateAndGet(messageRepository.findMaxSeq(threadId), Math::max);
+        }
+    }
+
+    // Local eviction only, used when another node reports a change.
+    public void invalidate(String threadId) {
+        ThreadState removed = cache.asMap().remove(threadId);
+        if (removed != null) {
+            retiredSeqs.put(threadId, removed.lastSeq());
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private ThreadState load(String threadId) {
+        return threadRepository.findById(threadId)
+                .map(thread -> ThreadState.of(thread, thread.getLastMessageAt() != null, seedSeq(threadId)))
+                .orElse(null);
+    }
+
+    private AtomicLong seedSeq(String threadId) {
+        AtomicLong retired = retiredSeqs.getIfPresent(threadId);
+        long stored = messageRepository.findMaxSeq(threadId);
+        return new AtomicLong(retired == null ? stored : Math.max(stored, retired.get()));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "thread-state");
+    }
+}
@@ -0,0 +1,4 @@
+package com.ycwy.poc_chat.support;
+
+public record ThreadStateChangedEvent(String threadId) {
+}
@@ -0,0 +1,48 @@
+package com.ycwy.poc_chat.support;
+
+// STOMP destinations for support threads. Thread list updates are routed by
+// interest: a client follows its own user topic, a support agent its user topic
+// (threads assigned to them) plus the unassigned queue shared by every agent.
+public final class ThreadTopics {
+
+    public static final String UNASSIGNED = "/topic/support/unassigned";
+
+    private static final String THREAD_PREFIX = "/topic/threads/";
+    private static final String USER_PREFIX = "/topic/users/";
+
+    private ThreadTopics() {
+    }
+
+    public static String thread(String threadId) {
+        return THREAD_PREFIX + threadId;
+    }
+
+    public static String typing(String threadId) {
+        return THREAD_PREFIX + threadId + "/typing";
+    }
+
+    public static String userThreads(String userId) {
+        return USER_PREFIX + userId + "/threads";
+    }
+
+    // Thread id of /topic/threads/{id} or /topic/threads/{id}/typing, else null.
+    public static String threadIdOf(String destination) {
+        if (!destination.startsWith(THREAD_PREFIX)) {
+            return null;
+        }
+        String rest = destination.substring(THREAD_PREFIX.length());
+        if (rest.endsWith("/typing")) {
+            rest = rest.substring(0, rest.length() - "/typing".length());
+        }
+        return rest.isEmpty() || rest.contains("/") ? null : rest;
+    }
+
+    // User id of /topic/users/{id}/threads, else null.
+    public static String userIdOf(String destination) {
+        if (!destination.startsWith(USER_PREFIX) || !destination.endsWith("/threads")) {
+            return null;
+        }
+        String userId = destination.substring(USER_PREFIX.length(), destination.length() - "/threads".length());
+        return userId.isEmpty() || userId.contains("/") ? null : userId;
+    }
+}
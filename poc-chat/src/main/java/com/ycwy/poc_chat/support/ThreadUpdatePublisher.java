@@ -0,0 +1,42 @@
+package com.ycwy.poc_chat.support;
+
+import com.ycwy.poc_chat.chat.BroadcastPublisher;
+import com.ycwy.poc_chat.support.dto.ThreadDto;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Sends a changed thread only to the topics of users who can see it, instead of
+// one topic every agent follows: the creator, the assigned agent, and the
+// unassigned queue while nobody owns the thread. The queue also gets the update
+// that takes a thread out of it, and a previous assignee the one that takes it
+// away from them, so their lists drop it.
+@Component
+public class ThreadUpdatePublisher {
+
+    private final BroadcastPublisher broadcasts;
+
+    public ThreadUpdatePublisher(BroadcastPublisher broadcasts) {
+        this.broadcasts = broadcasts;
+    }
+
+    // visibleToSupport is false until the thread has a message.
+    public void publish(ThreadDto dto, String previousAssignee, boolean visibleToSupport) {
+        List<String> destinations = new ArrayList<>(4);
+        destinations.add(ThreadTopics.userThreads(dto.createdByUserId()));
+        if (visibleToSupport) {
+            String assignee = dto.assignedSupportUserId();
+            if (assignee == null || previousAssignee == null) {
+                destinations.add(ThreadTopics.UNASSIGNED);
+            }
+            if (assignee != null) {
+                destinations.add(ThreadTopics.userThreads(assignee));
+            }
+            if (previousAssignee != null && !previousAssignee.equals(assignee)) {
+                destinations.add(ThreadTopics.userThreads(previousAssignee));
+            }
+        }
+        broadcasts.publish(dto, destinations);
+    }
+}
@@ -0,0 +1,41 @@
+package com.ycwy.poc_chat.support;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// UUIDv7 (RFC 9562): 48-bit Unix milliseconds, then a 12-bit counter, then 62
+// random bits. New ids sort after older ones, so inserts append to the right
+// edge of the primary key instead of splitting pages all over it.
+//
+// The millisecond and the counter share one AtomicLong, which keeps ids from
+// this process strictly increasing without a lock: a burst of more than 4096
+// ids in one millisecond borrows from the next one, and a clock going back
+// keeps counting from the last value. The random bits do not need to be
+// unguessable: ids are not access tokens, every endpoint checks the caller.
+@Component
+@ConditionalOnProperty(name = "chat.ids.strategy", havingValue = "time-ordered", matchIfMissing = true)
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000_0000_0000_0000L;
+
+    // (millis << 12) | counter of the last id handed out.
+    private final AtomicLong last = new AtomicLong();
+
+    @Override
+    public String newId() {
+        return newUuid().toString();
+    }
+
+    public UUID newUuid() {
+        long now = System.currentTimeMillis() << 12;
+        long stamp = last.updateAndGet(previous -> Math.max(now, previous + 1));
+        long msb = (stamp >>> 12) << 16 | VERSION | (stamp & 0xFFF);
+        long lsb = ThreadLocalRandom.current().nextLong() >>> 2 | VARIANT;
+        return new UUID(msb, lsb);
+    }
+}
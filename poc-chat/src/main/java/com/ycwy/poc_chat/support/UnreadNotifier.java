@@ -0,0 +1,34 @@
+package com.ycwy.poc_chat.support;
+
+import com.ycwy.poc_chat.chat.BroadcastPublisher;
+import com.ycwy.poc_chat.support.dto.ThreadUnreadDto;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Pushes "one more unread message" to everyone on a thread but its sender.
+// Unassigned threads are visible to every support agent, so their update goes
+// to the unassigned queue.
+@Component
+public class UnreadNotifier {
+
+    private final BroadcastPublisher broadcasts;
+
+    public UnreadNotifier(BroadcastPublisher broadcasts) {
+        this.broadcasts = broadcasts;
+    }
+
+    public void messageAdded(String threadId, String createdByUserId, String assignedSupportUserId, String senderUserId) {
+        List<String> destinations = new ArrayList<>(2);
+        if (!createdByUserId.equals(senderUserId)) {
+            destinations.add(ThreadTopics.userThreads(createdByUserId));
+        }
+        if (assignedSupportUserId == null) {
+            destinations.add(ThreadTopics.UNASSIGNED);
+        } else if (!assignedSupportUserId.equals(senderUserId)) {
+            destinations.add(ThreadTopics.userThreads(assignedSupportUserId));
+        }
+        broadcasts.publish(new ThreadUnreadDto(threadId, 1, false), destinations);
+    }
+}
@@ -4,6 +4,7 @@ import java.time.Instant;
 
 public record MessageDto(
         String id,
+        Long seq,
         String content,
         Instant sentAt,
         String threadId,
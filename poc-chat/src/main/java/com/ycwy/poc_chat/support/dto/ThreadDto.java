@@ -13,6 +13,8 @@ public record ThreadDto(
         String reservationId,
         String assignedSupportUserId,
         String assignedSupportName,
-        String assignedSupportEmail
+        String assignedSupportEmail,
+        // For the requesting user; null in updates pushed to shared topics.
+        Long unreadCount
 ) {
 }
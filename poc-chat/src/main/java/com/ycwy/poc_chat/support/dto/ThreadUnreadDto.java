@@ -0,0 +1,11 @@
+package com.ycwy.poc_chat.support.dto;
+
+// Pushed on /topic/users/{id}/threads (and /topic/support/unassigned for
+// unassigned threads): unreadDelta new messages, or read = true once the user read the
+// thread, so clients keep ThreadDto.unreadCount current without refetching.
+public record ThreadUnreadDto(
+        String threadId,
+        int unreadDelta,
+        boolean read
+) {
+}
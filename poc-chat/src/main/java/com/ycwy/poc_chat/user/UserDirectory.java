@@ -0,0 +1,92 @@
+package com.ycwy.poc_chat.user;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Service
+public class UserDirectory implements MeterBinder {
+
+    private final UserRepository userRepository;
+    private final LoadingCache<String, UserSummary> cache;
+
+    public UserDirectory(
+            UserRepository userRepository,
+            @Value("${chat.users.cache.max-size:10000}") long maxSize,
+            @Value("${chat.users.cache.ttl-minutes:30}") long ttlMinutes
+    ) {
+        this.userRepository = userRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build(new UserSummaryLoader(userRepository));
+    }
+
+    public UserSummary find(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        return cache.get(userId);
+    }
+
+    public Map<String, UserSummary> findAll(Collection<String> userIds) {
+        Set<String> ids = userIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        if (ids.isEmpty()) {
+            return new HashMap<>();
+        }
+        return cache.getAll(ids);
+    }
+
+    public void invalidate(String userId) {
+        if (userId != null) {
+            cache.invalidate(userId);
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private record UserSummaryLoader(UserRepository userRepository)
+            implements CacheLoader<String, UserSummary> {
+
+        @Override
+        public UserSummary load(String userId) {
+            return userRepository.findById(userId).map(UserSummary::from).orElse(null);
+        }
+
+        @Override
+        public Map<String, UserSummary> loadAll(Set<? extends String> userIds) {
+            return userRepository.findAllById(Set.copyOf(userIds)).stream()
+                    .collect(Collectors.toMap(User::getId, UserSummary::from));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "user-directory");
+    }
+}
@@ -0,0 +1,47 @@
+package com.ycwy.poc_chat.user;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// Instantiated by Hibernate through Spring's bean container; the directory is
+// resolved lazily because it depends on the repository being built.
+//
+// The callbacks run at flush, before the commit: a lookup in between would load
+// the old row back into the directory. The entry is dropped once the
+// transaction has committed, and not at all when it rolls back.
+public class UserEntityListener {
+
+    private final ObjectProvider<UserDirectory> userDirectory;
+
+    public UserEntityListener(ObjectProvider<UserDirectory> userDirectory) {
+        this.userDirectory = userDirectory;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    void onChange(User user) {
+        String userId = user.getId();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(userId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(userId);
+            }
+        });
+    }
+
+    private void invalidate(String userId) {
+        UserDirectory directory = userDirectory.getIfAvailable();
+        if (directory != null) {
+            directory.invalidate(userId);
+        }
+    }
+}
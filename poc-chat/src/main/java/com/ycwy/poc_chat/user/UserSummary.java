@@ -0,0 +1,23 @@
+package com.ycwy.poc_chat.user;
+
+public record UserSummary(
+        String id,
+        String displayName,
+        String email,
+        String role
+) {
+
+    public static UserSummary from(User user) {
+        return new UserSummary(user.getId(), displayName(user), user.getEmail(), user.getRole());
+    }
+
+    public static String displayName(User user) {
+        if (user == null) {
+            return null;
+        }
+        String first = user.getFirstName();
+        String last = user.getLastName();
+        String full = (first + " " + last).trim();
+        return full.isEmpty() ? user.getEmail() : full;
+    }
+}
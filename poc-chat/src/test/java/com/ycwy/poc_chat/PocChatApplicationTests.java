@@ -3,7 +3,8 @@ package com.ycwy.poc_chat;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// In-memory search index, so the run leaves nothing in data/.
+@SpringBootTest(properties = "chat.search.index-dir=")
 class PocChatApplicationTests {
 
 	@Test
@@ -0,0 +1,194 @@
+package com.ycwy.poc_chat.chat;
+
+import com.ycwy.poc_chat.support.SupportMessage;
+import com.ycwy.poc_chat.support.SupportMessageRepository;
+import com.ycwy.poc_chat.support.SupportThread;
+import com.ycwy.poc_chat.support.SupportThreadRepository;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.ThreadTopics;
+import com.ycwy.poc_chat.user.UserDirectory;
+import com.ycwy.poc_chat.user.UserRepository;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.converter.JacksonJsonMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.security.Principal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ThreadReplayTests {
+
+    private static final String THREAD_ID = "thread-1";
+
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final MessageHandler broker = new SimpleBrokerMessageHandler(
+            new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(),
+            List.of("/topic"));
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+    private RecentMessageBuffer buffer;
+    private SupportMessageRepository messageRepository;
+    private ThreadReplay replay;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        buffer = new RecentMessageBuffer(4, 100, 30, "simple");
+        messageRepository = mock(SupportMessageRepository.class);
+        ThreadStateCache threadStateCache = new ThreadStateCache(
+                mock(SupportThreadRepository.class), messageRepository, event -> {
+                }, 100);
+        SupportThread thread = new SupportThread();
+        thread.setId(THREAD_ID);
+        thread.setSubject("Subject");
+        thread.setStatus("OPEN");
+        thread.setCreatedAt(Instant.now());
+        thread.setCreatedByUserId("client-1");
+        threadStateCache.created(thread);
+
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> true);
+        template.setMessageConverter(new JacksonJsonMessageConverter());
+        ObjectProvider<SimpMessagingTemplate> templates = mock(ObjectProvider.class);
+        when(templates.getObject()).thenReturn(template);
+        ObjectProvider<MessageChannel> outbound = mock(ObjectProvider.class);
+        when(outbound.getObject()).thenReturn((message, timeout) -> sent.add(message));
+
+        replay = new ThreadReplay(buffer, messageRepository, threadStateCache,
+                new UserDirectory(mock(UserRepository.class), 100, 30), templates, outbound,
+                new ChatMetrics(new SimpleMeterRegistry()), 3);
+    }
+
+    @Test
+    void replaysFromMemoryWhenRingCoversLastSeq() {
+        LongStream.rangeClosed(1, 6).forEach(seq -> buffer.record(chatMessage(seq)));
+
+        subscribe(4, "client-1");
+
+        assertThat(sentSeqs()).containsExactly(5L, 6L);
+        assertThat(sent).allSatisfy(message -> assertThat(moreHeader(message)).isNull());
+        verify(messageRepository, never()).findAfterSeq(any(), anyLong(), any());
+    }
+
+    @Test
+    void readsDatabaseWhenRingNoLongerCoversLastSeq() {
+        LongStream.rangeClosed(1, 6).forEach(seq -> buffer.record(chatMessage(seq)));
+        storedAfter(1, List.of(2L, 3L, 4L), true);
+
+        subscribe(1, "client-1");
+
+        assertThat(sentSeqs()).containsExactly(2L, 3L, 4L);
+        // Only the last frame of a truncated replay says there is more to page.
+        assertThat(sent).extracting(ThreadReplayTests::moreHeader).containsExactly(null, null, "true");
+    }
+
+    @Test
+    void completeDatabaseReplayHasNoMoreFlag() {
+        storedAfter(0, List.of(1L, 2L), false);
+
+        subscribe(0, "client-1");
+
+        assertThat(sentSeqs()).containsExactly(1L, 2L);
+        assertThat(sent).allSatisfy(message -> assertThat(moreHeader(message)).isNull());
+    }
+
+    @Test
+    void nothingForUsersWhoCannotReadTheThread() {
+        LongStream.rangeClosed(1, 3).forEach(seq -> buffer.record(chatMessage(seq)));
+
+        subscribe(0, "client-2");
+
+        assertThat(sent).isEmpty();
+    }
+
+    @Test
+    void waitsForTheBrokerToHandleTheSubscribe() {
+        LongStream.rangeClosed(1, 3).forEach(seq -> buffer.record(chatMessage(seq)));
+
+        replay.afterMessageHandled(subscribeFrame(0, "client-1"), null, message -> {
+        }, null);
+
+        assertThat(sent).isEmpty();
+    }
+
+    private void subscribe(long lastSeq, String userId) {
+        replay.afterMessageHandled(subscribeFrame(lastSeq, userId), null, broker, null);
+    }
+
+    private void storedAfter(long lastSeq, List<Long> seqs, boolean more) {
+        List<SupportMessage> messages = seqs.stream().map(seq -> {
+            SupportMessage message = new SupportMessage();
+            message.setId("message-" + seq);
+            message.setSeq(seq);
+            message.setContent("content " + seq);
+            message.setSentAt(Instant.now());
+            message.setThreadId(THREAD_ID);
+            message.setSenderUserId("client-1");
+            return message;
+        }).toList();
+        Pageable page = PageRequest.of(0, 3);
+        when(messageRepository.findAfterSeq(eq(THREAD_ID), eq(lastSeq), any()))
+                .thenReturn(new SliceImpl<>(messages, page, more));
+    }
+
+    private List<Long> sentSeqs() {
+        return sent.stream()
+                .map(message -> jsonMapper.readValue((byte[]) message.getPayload(), ChatMessage.class).getSeq())
+                .toList();
+    }
+
+    private static String moreHeader(Message<?> message) {
+        return StompHeaderAccessor.wrap(message).getFirstNativeHeader(ThreadReplay.MORE_HEADER);
+    }
+
+    private static Message<byte[]> subscribeFrame(long lastSeq, String userId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId("session-1");
+        accessor.setSubscriptionId("sub-1");
+        accessor.setDestination(ThreadTopics.thread(THREAD_ID));
+        accessor.setNativeHeader(ThreadReplay.LAST_SEQ_HEADER, Long.toString(lastSeq));
+        accessor.setUser(user(userId));
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Principal user(String userId) {
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken(userId + "@example.com", null, List.of());
+        authentication.setDetails(Jwts.claims(Map.of("uid", userId, "role", "CLIENT")));
+        return authentication;
+    }
+
+    private static ChatMessage chatMessage(long seq) {
+        return new ChatMessage("message-" + seq, seq, "content " + seq, Instant.now(), THREAD_ID,
+                "client-1", "Client", "client@example.com");
+    }
+}
@@ -0,0 +1,107 @@
+package com.ycwy.poc_chat.chat;
+
+import com.ycwy.poc_chat.support.ThreadTopics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class TypingAggregatorTests {
+
+    private static final String THREAD_ID = "thread-1";
+
+    private final List<TypingEvent> published = new ArrayList<>();
+    private final AtomicLong nanos = new AtomicLong();
+    private TypingAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        BroadcastPublisher broadcasts = mock(BroadcastPublisher.class);
+        doAnswer(invocation -> {
+            assertThat((String) invocation.getArgument(1)).isEqualTo(ThreadTopics.typing(THREAD_ID));
+            return published.add(invocation.getArgument(0));
+        }).when(broadcasts).publish(any(), anyString());
+        // 100 ms ticks, typing expires after 5 ticks, 2 updates per second and thread.
+        aggregator = new TypingAggregator(broadcasts, 100, 500, 2, nanos::get);
+    }
+
+    @Test
+    void repeatedStatesAreCoalesced() {
+        typing("user-1", true);
+        typing("user-1", true);
+        typing("user-1", true);
+        typing("user-1", false);
+        typing("user-1", false);
+
+        assertThat(published).extracting(TypingEvent::isTyping).containsExactly(true, false);
+        assertThat(aggregator.droppedCount()).isEqualTo(3);
+        assertThat(aggregator.receivedCount()).isEqualTo(5);
+    }
+
+    @Test
+    void typingExpiresWithoutRefresh() {
+        typing("user-1", true);
+        ticks(2);
+        // Refreshing moves the deadline five ticks on.
+        typing("user-1", true);
+        ticks(4);
+        assertThat(published).hasSize(1);
+
+        ticks(1);
+
+        assertThat(published).extracting(TypingEvent::isTyping).containsExactly(true, false);
+        assertThat(aggregator.expiredCount()).isEqualTo(1);
+        assertThat(aggregator.activeThreads()).isZero();
+    }
+
+    @Test
+    void sendingStopsTyping() {
+        typing("user-1", true);
+
+        aggregator.stopped(THREAD_ID, "user-1");
+        aggregator.stopped(THREAD_ID, "user-1");
+        aggregator.stopped(THREAD_ID, "user-2");
+        aggregator.stopped("other-thread", "user-1");
+
+        assertThat(published).extracting(TypingEvent::isTyping).containsExactly(true, false);
+        // The expiry already scheduled publishes nothing more.
+        ticks(5);
+        assertThat(published).hasSize(2);
+        assertThat(aggregator.expiredCount()).isZero();
+    }
+
+    @Test
+    void updatesBeyondTheRateLimitWaitForTheNextWindow() {
+        typing("user-1", true);
+        typing("user-2", true);
+        typing("user-3", true);
+        assertThat(published).extracting(TypingEvent::getSenderUserId).containsExactly("user-1", "user-2");
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        ticks(1);
+        assertThat(published).hasSize(2);
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        ticks(1);
+        assertThat(published).extracting(TypingEvent::getSenderUserId).containsExactly("user-1", "user-2", "user-3");
+    }
+
+    private void typing(String userId, boolean typing) {
+        aggregator.submit(THREAD_ID, userId, userId, userId + "@example.com", typing);
+    }
+
+    private void ticks(int count) {
+        for (int i = 0; i < count; i++) {
+            aggregator.tick();
+        }
+    }
+}
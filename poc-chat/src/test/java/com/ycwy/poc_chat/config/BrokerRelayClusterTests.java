@@ -0,0 +1,153 @@
+package com.ycwy.poc_chat.config;
+
+import com.ycwy.poc_chat.PocChatApplication;
+import com.ycwy.poc_chat.security.JwtService;
+import com.ycwy.poc_chat.support.SupportThread;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.ThreadTopics;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two nodes in chat.broker.mode=relay sharing an in-process STOMP broker.
+class BrokerRelayClusterTests {
+
+    private static InProcessStompBroker broker;
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    @BeforeAll
+    static void startCluster() {
+        broker = new InProcessStompBroker();
+        nodeA = startNode("node-a");
+        nodeB = startNode("node-b");
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        if (nodeA != null) {
+            nodeA.close();
+        }
+        if (nodeB != null) {
+            nodeB.close();
+        }
+        if (broker != null) {
+            broker.close();
+        }
+    }
+
+    @Test
+    void topicMessagePublishedOnOneNodeReachesSubscriberOnAnother() throws Exception {
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new StringMessageConverter());
+        int port = ((WebServerApplicationContext) nodeB).getWebServer().getPort();
+        // Subscriptions are authorized: connect as a client and follow its own thread list topic.
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer "
+                + nodeB.getBean(JwtService.class).generateToken("user-1", "user-1@example.com", "CLIENT"));
+        StompSession session = client.connectAsync("ws://localhost:" + port + "/ws-chat", new WebSocketHttpHeaders(),
+                connectHeaders, new StompSessionHandlerAdapter() {
+                }).get(10, TimeUnit.SECONDS);
+
+        String destination = ThreadTopics.userThreads("user-1");
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return String.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((String) payload);
+            }
+        });
+
+        // The subscription travels node B -> broker asynchronously: publish until it is in place.
+        SimpMessageSendingOperations publisher = nodeA.getBean(SimpMessageSendingOperations.class);
+        String message = null;
+        for (int attempt = 0; attempt < 50 && message == null; attempt++) {
+            publisher.convertAndSend(destination, "hello from node A");
+            message = received.poll(200, TimeUnit.MILLISECONDS);
+        }
+
+        assertThat(message).isEqualTo("hello from node A");
+        session.disconnect();
+        client.stop();
+    }
+
+    @Test
+    void threadStateChangeOnOneNodeEvictsOtherNodes() {
+        SupportThread thread = new SupportThread();
+        thread.setId("thread-2");
+        thread.setSubject("Relay");
+        thread.setStatus("OPEN");
+        thread.setCreatedAt(Instant.now());
+        thread.setCreatedByUserId("user-1");
+
+        ThreadStateCache cacheB = nodeB.getBean(ThreadStateCache.class);
+        cacheB.created(thread);
+        assertThat(cacheB.getIfPresent("thread-2")).isNotNull();
+
+        nodeA.getBean(ThreadStateCache.class).updated(thread);
+
+        awaitUntil(() -> cacheB.getIfPresent("thread-2") == null);
+    }
+
+    private static ConfigurableApplicationContext startNode(String nodeId) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(PocChatApplication.class)
+                .run(
+                        "--server.port=0",
+                        "--management.server.port=0",
+                        "--spring.main.banner-mode=off",
+                        "--chat.broker.mode=relay",
+                        "--chat.broker.node-id=" + nodeId,
+                        // Both nodes run in this JVM; a shared index directory would be locked by the first.
+                        "--chat.search.index-dir=",
+                        "--chat.broker.relay.host=127.0.0.1",
+                        "--chat.broker.relay.port=" + broker.port()
+                );
+        // Wait for the relay's system session so the node can publish.
+        StompBrokerRelayMessageHandler relay = context.getBean(
+                "stompBrokerRelayMessageHandler", StompBrokerRelayMessageHandler.class);
+        awaitUntil(relay::isBrokerAvailable);
+        return context;
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met in time");
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(ex);
+            }
+        }
+    }
+}
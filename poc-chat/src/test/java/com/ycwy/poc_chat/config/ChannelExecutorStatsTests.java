@@ -0,0 +1,50 @@
+package com.ycwy.poc_chat.config;
+
+import io.micrometer.core.instrument.MockClock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChannelExecutorStatsTests {
+
+    private final MockClock clock = new MockClock();
+    private final ChannelExecutorStats stats = new ChannelExecutorStats("inbound", clock);
+
+    @Test
+    void countsWaitAndRunOfDecoratedTasks() throws InterruptedException {
+        Runnable task = stats.decorate(() -> {
+        });
+        assertThat(stats.inFlightCount()).isEqualTo(1);
+        Thread.sleep(5);
+
+        task.run();
+
+        assertThat(stats.completedCount()).isEqualTo(1);
+        assertThat(stats.inFlightCount()).isZero();
+        assertThat(stats.totalWaitNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(5));
+        assertThat(stats.maxWaitNanos()).isEqualTo((double) stats.totalWaitNanos());
+    }
+
+    @Test
+    void maxWaitCoversARollingWindow() throws InterruptedException {
+        Runnable slow = stats.decorate(() -> {
+        });
+        Thread.sleep(5);
+        slow.run();
+        long spike = stats.totalWaitNanos();
+        assertThat(stats.maxWaitNanos()).isEqualTo((double) spike);
+
+        // The spike no longer shows once the window has rolled over...
+        clock.add(Duration.ofMinutes(3));
+        assertThat(stats.maxWaitNanos()).isZero();
+
+        // ...while the totals keep it.
+        stats.decorate(() -> {
+        }).run();
+        assertThat(stats.maxWaitNanos()).isLessThan(spike);
+        assertThat(stats.totalWaitNanos()).isGreaterThanOrEqualTo(spike);
+    }
+}
@@ -0,0 +1,109 @@
+package com.ycwy.poc_chat.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FanOutStompEncoderTests {
+
+    private static final byte[] JSON = """
+            {"id":"m1","seq":1,"content":"Bonjour","threadId":"t1"}""".getBytes(StandardCharsets.UTF_8);
+
+    private final StompEncoder reference = new StompEncoder();
+    private final FanOutStompEncoder encoder = new FanOutStompEncoder(100);
+
+    @Test
+    void broadcastToSeveralSubscribers() {
+        // The second round reuses the cached names and values.
+        for (int round = 0; round < 2; round++) {
+            for (int subscriber = 0; subscriber < 3; subscriber++) {
+                String subscription = "sub-" + subscriber;
+                String messageId = "message-" + round + "-" + subscriber;
+                assertSameBytes(message(accessor -> {
+                    accessor.setDestination("/topic/threads/t1");
+                    accessor.setSubscriptionId(subscription);
+                    accessor.setMessageId(messageId);
+                    accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+                }), JSON);
+            }
+        }
+    }
+
+    @Test
+    void escapedNamesAndValues() {
+        assertSameBytes(message(accessor -> {
+            accessor.setDestination("/topic/threads/a:b");
+            accessor.setSubscriptionId("sub\\1");
+            accessor.setMessageId("id:with\\colon");
+            accessor.setNativeHeader("x-multi\nline", "first\r\nsecond");
+            accessor.setNativeHeader("x:name", "value:");
+        }), JSON);
+    }
+
+    @Test
+    void multiValuedHeaders() {
+        assertSameBytes(message(accessor -> {
+            accessor.setDestination("/topic/threads/t1");
+            accessor.setSubscriptionId("sub-1");
+            accessor.addNativeHeader("x-trace", "a");
+            accessor.addNativeHeader("x-trace", "b");
+            accessor.addNativeHeader("x-trace", "a");
+        }), JSON);
+    }
+
+    @Test
+    void emptyPayload() {
+        assertSameBytes(message(accessor -> {
+            accessor.setDestination("/topic/threads/t1");
+            accessor.setSubscriptionId("sub-1");
+            accessor.setMessageId("message-1");
+        }), new byte[0]);
+    }
+
+    @Test
+    void nonAsciiValuesAndPayload() {
+        assertSameBytes(message(accessor -> {
+            accessor.setDestination("/topic/threads/réservation-été");
+            accessor.setSubscriptionId("sub-ü");
+            accessor.setMessageId("message-✓");
+            accessor.setNativeHeader("x-sender", "Zoë 日本 😀");
+        }), "{\"content\":\"Ça marche, merci 😀\"}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void contentLengthHeaderIsReplaced() {
+        assertSameBytes(message(accessor -> {
+            accessor.setDestination("/topic/threads/t1");
+            accessor.setSubscriptionId("sub-1");
+            accessor.setNativeHeader("content-length", "999");
+        }), JSON);
+    }
+
+    @Test
+    void otherFramesUseTheDefaultEncoding() {
+        StompHeaderAccessor error = StompHeaderAccessor.create(StompCommand.ERROR);
+        error.setMessage("Access: denied");
+        assertSameBytes(error.getMessageHeaders(), "details".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageHeaders message(Consumer<StompHeaderAccessor> headers) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        headers.accept(accessor);
+        return accessor.getMessageHeaders();
+    }
+
+    private void assertSameBytes(MessageHeaders headers, byte[] payload) {
+        byte[] expected = reference.encode(headers, payload);
+        byte[] actual = encoder.encode(headers, payload);
+        assertThat(new String(actual, StandardCharsets.UTF_8)).isEqualTo(new String(expected, StandardCharsets.UTF_8));
+        assertThat(actual).isEqualTo(expected);
+    }
+}
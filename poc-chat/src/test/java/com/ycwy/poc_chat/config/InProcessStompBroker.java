@@ -0,0 +1,137 @@
+package com.ycwy.poc_chat.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.BufferingStompDecoder;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpServer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Minimal STOMP 1.2 broker standing in for RabbitMQ/Artemis in relay mode tests:
+// CONNECT, SUBSCRIBE, UNSUBSCRIBE, SEND (exact destination fan-out) and DISCONNECT.
+final class InProcessStompBroker implements AutoCloseable {
+
+    private final StompEncoder encoder = new StompEncoder();
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong messageIds = new AtomicLong();
+    private final DisposableServer server;
+
+    InProcessStompBroker() {
+        this.server = TcpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .handle((in, out) -> {
+                    Connection connection = new Connection();
+                    in.receive().asByteArray().subscribe(
+                            connection::receive,
+                            error -> connection.close(),
+                            connection::close
+                    );
+                    return out.sendByteArray(connection.outbound.asFlux());
+                })
+                .bindNow();
+    }
+
+    int port() {
+        return server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private record Subscription(Connection connection, String id) {
+    }
+
+    private final class Connection {
+
+        private final BufferingStompDecoder decoder = new BufferingStompDecoder(new StompDecoder(), 1024 * 1024);
+        private final Sinks.Many<byte[]> outbound = Sinks.many().unicast().onBackpressureBuffer();
+        private final Map<String, String> destinations = new ConcurrentHashMap<>();
+
+        private void receive(byte[] bytes) {
+            for (Message<byte[]> frame : decoder.decode(ByteBuffer.wrap(bytes))) {
+                handle(frame);
+            }
+        }
+
+        private void handle(Message<byte[]> frame) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(frame);
+            StompCommand command = accessor.getCommand();
+            if (command == null) {
+                return; // heart-beat
+            }
+            switch (command) {
+                case CONNECT, STOMP -> {
+                    StompHeaderAccessor connected = StompHeaderAccessor.create(StompCommand.CONNECTED);
+                    connected.setVersion("1.2");
+                    connected.setHeartbeat(0, 0);
+                    send(connected, new byte[0]);
+                }
+                case SUBSCRIBE -> {
+                    String destination = accessor.getDestination();
+                    destinations.put(accessor.getSubscriptionId(), destination);
+                    subscriptions.computeIfAbsent(destination, key -> ConcurrentHashMap.newKeySet())
+                            .add(new Subscription(this, accessor.getSubscriptionId()));
+                }
+                case UNSUBSCRIBE -> unsubscribe(accessor.getSubscriptionId());
+                case SEND -> publish(accessor, frame.getPayload());
+                case DISCONNECT -> close();
+                default -> {
+                }
+            }
+            String receipt = accessor.getReceipt();
+            if (receipt != null) {
+                StompHeaderAccessor receiptFrame = StompHeaderAccessor.create(StompCommand.RECEIPT);
+                receiptFrame.setReceiptId(receipt);
+                send(receiptFrame, new byte[0]);
+            }
+        }
+
+        private void publish(StompHeaderAccessor send, byte[] payload) {
+            Set<Subscription> targets = subscriptions.getOrDefault(send.getDestination(), Set.of());
+            for (Subscription target : targets) {
+                StompHeaderAccessor message = StompHeaderAccessor.create(StompCommand.MESSAGE);
+                send.toNativeHeaderMap().forEach((name, values) -> {
+                    if (!List.of("destination", "receipt", "content-length").contains(name)) {
+                        message.setNativeHeaderValues(name, values);
+                    }
+                });
+                message.setDestination(send.getDestination());
+                message.setSubscriptionId(target.id());
+                message.setMessageId(String.valueOf(messageIds.incrementAndGet()));
+                target.connection().send(message, payload);
+            }
+        }
+
+        private synchronized void send(StompHeaderAccessor accessor, byte[] payload) {
+            accessor.setLeaveMutable(true);
+            Message<byte[]> message = MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+            outbound.tryEmitNext(encoder.encode(message));
+        }
+
+        private void unsubscribe(String subscriptionId) {
+            String destination = destinations.remove(subscriptionId);
+            if (destination != null) {
+                subscriptions.getOrDefault(destination, Set.of()).remove(new Subscription(this, subscriptionId));
+            }
+        }
+
+        private synchronized void close() {
+            destinations.keySet().forEach(this::unsubscribe);
+            outbound.tryEmitComplete();
+        }
+    }
+}
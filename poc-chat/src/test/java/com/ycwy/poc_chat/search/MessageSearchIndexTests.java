@@ -0,0 +1,160 @@
+package com.ycwy.poc_chat.search;
+
+import com.ycwy.poc_chat.support.SupportMessage;
+import com.ycwy.poc_chat.support.ThreadState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageSearchIndexTests {
+
+    // thread id -> thread, as ThreadStateCache would return them
+    private static final Map<String, ThreadState> THREADS = Map.of(
+            "unassigned", thread("unassigned", "client-1", null),
+            "mine", thread("mine", "client-1", "agent-1"),
+            "other-agent", thread("other-agent", "client-2", "agent-2")
+    );
+
+    private JdbcTemplate jdbcTemplate;
+    private MessageSearchIndex index;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        index = open(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    void clientsOnlyFindMessagesOfTheirThreads() {
+        add("m1", "unassigned", "Ma voiture est en panne");
+        add("m2", "other-agent", "La voiture a un pneu creve");
+
+        List<String> client1 = ids(search("voiture", "client-1", "CLIENT", 0, 10));
+        List<String> client2 = ids(search("voiture", "client-2", "CLIENT", 0, 10));
+
+        assertThat(client1).containsExactly("m1");
+        assertThat(client2).containsExactly("m2");
+    }
+
+    @Test
+    void agentsSkipThreadsAssignedToOtherAgents() {
+        add("m1", "unassigned", "remboursement demande");
+        add("m2", "mine", "remboursement en cours");
+        add("m3", "other-agent", "remboursement refuse");
+
+        assertThat(ids(search("remboursement", "agent-1", "SUPPORT", 0, 10)))
+                .containsExactlyInAnyOrder("m1", "m2");
+        assertThat(ids(search("remboursement", "agent-2", "SUPPORT", 0, 10)))
+                .containsExactlyInAnyOrder("m1", "m3");
+    }
+
+    @Test
+    void hiddenHitsDoNotCountTowardsOffsetAndLimit() {
+        add("m1", "other-agent", "facture");
+        add("m2", "mine", "facture");
+        add("m3", "other-agent", "facture");
+        add("m4", "unassigned", "facture");
+
+        MessageSearchIndex.SearchPage first = search("facture", "agent-1", "SUPPORT", 0, 1);
+        MessageSearchIndex.SearchPage second = search("facture", "agent-1", "SUPPORT", 1, 1);
+
+        assertThat(first.hasMore()).isTrue();
+        assertThat(second.hasMore()).isFalse();
+        assertThat(List.of(ids(first).get(0), ids(second).get(0))).containsExactlyInAnyOrder("m2", "m4");
+    }
+
+    @Test
+    void threadFilterAndFrenchAnalysis() {
+        add("m1", "mine", "Les reservations d'ete sont confirmees");
+        add("m2", "unassigned", "Reservation de l'été annulée");
+
+        // Accents folded, elisions and plurals reduced.
+        assertThat(ids(search("réservation été", "agent-1", "SUPPORT", 0, 10)))
+                .containsExactlyInAnyOrder("m1", "m2");
+        assertThat(ids(index.search("reservation", null, "mine", id -> true, 0, 10))).containsExactly("m1");
+    }
+
+    @Test
+    void emptyIndexIsRebuiltWhenMessagesAreStored() throws IOException {
+        index.close();
+        JdbcTemplate stored = mock(JdbcTemplate.class);
+        when(stored.queryForList(anyString(), eq(Integer.class))).thenReturn(List.of(1));
+
+        index = open(stored);
+
+        verify(stored, timeout(2_000)).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+        long deadline = System.currentTimeMillis() + 2_000;
+        while (index.status().lastRebuild() == null && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(index.status().lastRebuild()).isNotNull();
+        assertThat(index.status().lastRebuild().error()).isNull();
+    }
+
+    @Test
+    void emptyIndexIsLeftAloneWithoutStoredMessages() {
+        when(jdbcTemplate.queryForList(anyString(), eq(Integer.class))).thenReturn(List.of());
+
+        verify(jdbcTemplate, after(200).never()).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+    }
+
+    private static MessageSearchIndex open(JdbcTemplate jdbcTemplate) throws IOException {
+        MessageSearchIndex index = new MessageSearchIndex("", 60_000, 60_000, 5_000, jdbcTemplate);
+        index.open();
+        return index;
+    }
+
+    private void add(String id, String threadId, String content) {
+        SupportMessage message = new SupportMessage();
+        message.setId(id);
+        message.setSeq(1L);
+        message.setSentAt(Instant.now());
+        message.setContent(content);
+        message.setThreadId(threadId);
+        message.setSenderUserId("client-1");
+        index.add(message, THREADS.get(threadId).createdByUserId());
+        index.refresh();
+    }
+
+    // Same narrowing as MessageSearchController: clients in the index, agents per thread.
+    private MessageSearchIndex.SearchPage search(String text, String userId, String role, int offset, int limit) {
+        Predicate<String> canRead = threadId -> {
+            ThreadState thread = THREADS.get(threadId);
+            return thread != null && thread.canAccess(userId, role);
+        };
+        return index.search(text, "CLIENT".equals(role) ? userId : null, null, canRead, offset, limit);
+    }
+
+    private static List<String> ids(MessageSearchIndex.SearchPage page) {
+        return page.hits().stream().map(MessageSearchIndex.SearchHit::id).toList();
+    }
+
+    private static ThreadState thread(String id, String createdBy, String assignee) {
+        return new ThreadState(id, "Subject", "OPEN", Instant.now(), createdBy, null, assignee, true, new AtomicLong());
+    }
+}
@@ -0,0 +1,258 @@
+package com.ycwy.poc_chat.security;
+
+import com.ycwy.poc_chat.config.ClusterThreadStateRelay;
+import com.ycwy.poc_chat.support.SupportMessageRepository;
+import com.ycwy.poc_chat.support.SupportThread;
+import com.ycwy.poc_chat.support.SupportThreadRepository;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.ThreadTopics;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+
+import java.security.Principal;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class StompAuthChannelInterceptorTests {
+
+    private static final String SECRET = "test-secret-test-secret-test-secret";
+
+    private JwtService jwtService;
+    private StompSessionExpiry sessionExpiry;
+    private ThreadStateCache threadStateCache;
+    private StompAuthChannelInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = new JwtService(SECRET, 60, 100, 300);
+        sessionExpiry = mock(StompSessionExpiry.class);
+        threadStateCache = new ThreadStateCache(
+                mock(SupportThreadRepository.class), mock(SupportMessageRepository.class), event -> {
+                }, 100);
+        interceptor = new StompAuthChannelInterceptor(jwtService, sessionExpiry, threadStateCache);
+        threadStateCache.created(thread("thread-1", "client-1", null));
+        threadStateCache.created(thread("thread-2", "client-1", "agent-2"));
+    }
+
+    @Test
+    void connectSetsPrincipalAndSchedulesExpiry() {
+        Session client = connect("client-1", "CLIENT");
+
+        Claims claims = StompAuthChannelInterceptor.claimsOf(client.user);
+        assertThat(claims.get("uid", String.class)).isEqualTo("client-1");
+        assertThat(client.user.getName()).isEqualTo("client-1@example.com");
+        assertThat(client.attributes.get(StompAuthChannelInterceptor.SUBJECT_ATTRIBUTE)).isEqualTo("client-1@example.com");
+        assertThat(client.attributes.get(StompAuthChannelInterceptor.EXPIRES_AT_ATTRIBUTE))
+                .isEqualTo(claims.getExpiration().getTime());
+        verify(sessionExpiry).schedule("session-1", client.attributes, claims.getExpiration().getTime());
+    }
+
+    @Test
+    void connectWithoutValidTokenStaysAnonymous() {
+        String expired = new JwtService(SECRET, 0, 100, 300).generateToken("client-1", "client-1@example.com", "CLIENT");
+        String foreign = new JwtService("other-secret-other-secret-other-secret", 60, 100, 300)
+                .generateToken("client-1", "client-1@example.com", "CLIENT");
+
+        for (String token : new String[]{null, "not-a-jwt", expired, foreign}) {
+            Map<String, Object> attributes = new HashMap<>();
+            Message<?> connect = interceptor.preSend(frame(StompCommand.CONNECT, null, attributes, null, token), null);
+
+            assertThat(StompHeaderAccessor.wrap(connect).getUser()).isNull();
+            assertThat(attributes).doesNotContainKey(StompAuthChannelInterceptor.EXPIRES_AT_ATTRIBUTE);
+        }
+        verify(sessionExpiry, never()).schedule(any(), any(), anyLong());
+    }
+
+    @Test
+    void expiredSessionRefusesFramesWithoutFreshToken() {
+        Session client = connect("client-1", "CLIENT");
+        client.expire();
+
+        assertThatThrownBy(() -> client.send("/app/chat.send"))
+                .isInstanceOf(MessageDeliveryException.class)
+                .hasMessageContaining("Token expired");
+        assertThatThrownBy(() -> client.subscribe(ThreadTopics.userThreads("client-1")))
+                .isInstanceOf(MessageDeliveryException.class);
+    }
+
+    @Test
+    void freshTokenForTheSameUserRefreshesTheSession() {
+        Session client = connect("client-1", "CLIENT");
+        client.expire();
+
+        Message<?> send = client.send("/app/chat.send", jwtService.generateToken("client-1", "client-1@example.com", "CLIENT"));
+
+        assertThat(send).isNotNull();
+        long expiresAt = (Long) client.attributes.get(StompAuthChannelInterceptor.EXPIRES_AT_ATTRIBUTE);
+        assertThat(expiresAt).isGreaterThan(System.currentTimeMillis());
+        // Once at CONNECT, once for the refresh (same deadline when issued in the same second).
+        verify(sessionExpiry, times(2)).schedule(any(), any(), anyLong());
+        verify(sessionExpiry, atLeastOnce()).schedule("session-1", client.attributes, expiresAt);
+        // The session is usable again without a token on every frame.
+        assertThat(client.send("/app/chat.send")).isNotNull();
+    }
+
+    @Test
+    void refreshWithAnotherUsersTokenIsRefused() {
+        Session client = connect("client-1", "CLIENT");
+        client.expire();
+        String otherUser = jwtService.generateToken("client-2", "client-2@example.com", "CLIENT");
+
+        assertThatThrownBy(() -> client.send("/app/chat.send", otherUser))
+                .isInstanceOf(MessageDeliveryException.class);
+        assertThat((Long) client.attributes.get(StompAuthChannelInterceptor.EXPIRES_AT_ATTRIBUTE))
+                .isLessThanOrEqualTo(System.currentTimeMillis());
+    }
+
+    @Test
+    void userTopicOnlyForItsOwner() {
+        Session client = connect("client-1", "CLIENT");
+
+        assertThat(client.subscribe(ThreadTopics.userThreads("client-1"))).isTrue();
+        assertThat(client.subscribe(ThreadTopics.userThreads("client-2"))).isFalse();
+    }
+
+    @Test
+    void threadTopicsFollowThreadAccess() {
+        Session creator = connect("client-1", "CLIENT");
+        Session otherClient = connect("client-2", "CLIENT");
+        Session agent = connect("agent-1", "SUPPORT");
+
+        assertThat(creator.subscribe(ThreadTopics.thread("thread-1"))).isTrue();
+        assertThat(creator.subscribe(ThreadTopics.typing("thread-2"))).isTrue();
+        assertThat(otherClient.subscribe(ThreadTopics.thread("thread-1"))).isFalse();
+        assertThat(otherClient.subscribe(ThreadTopics.typing("thread-1"))).isFalse();
+        // Unassigned threads are open to every agent, assigned ones to their agent only.
+        assertThat(agent.subscribe(ThreadTopics.thread("thread-1"))).isTrue();
+        assertThat(agent.subscribe(ThreadTopics.thread("thread-2"))).isFalse();
+        assertThat(agent.subscribe(ThreadTopics.thread("unknown"))).isFalse();
+    }
+
+    @Test
+    void supportQueueOnlyForSupport() {
+        assertThat(connect("agent-1", "SUPPORT").subscribe(ThreadTopics.UNASSIGNED)).isTrue();
+        assertThat(connect("client-1", "CLIENT").subscribe(ThreadTopics.UNASSIGNED)).isFalse();
+    }
+
+    @Test
+    void userDestinationsAllowedClusterAndUnknownTopicsRefused() {
+        Session agent = connect("agent-1", "SUPPORT");
+
+        assertThat(agent.subscribe("/user/queue/errors")).isTrue();
+        assertThat(agent.subscribe(ClusterThreadStateRelay.DESTINATION)).isFalse();
+        assertThat(agent.subscribe("/topic/threads")).isFalse();
+        assertThat(agent.subscribe("/app/chat.send")).isFalse();
+    }
+
+    @Test
+    void anonymousSubscriptionRefused() {
+        Session anonymous = new Session(null, new HashMap<>());
+
+        assertThat(anonymous.subscribe(ThreadTopics.userThreads("client-1"))).isFalse();
+    }
+
+    @Test
+    void sendOnlyToApplicationDestinations() {
+        Session client = connect("client-1", "CLIENT");
+
+        assertThat(client.send("/app/chat.send")).isNotNull();
+        assertThatThrownBy(() -> client.send(ThreadTopics.thread("thread-1")))
+                .isInstanceOf(MessageDeliveryException.class);
+        assertThatThrownBy(() -> client.send(ThreadTopics.UNASSIGNED))
+                .isInstanceOf(MessageDeliveryException.class);
+        assertThatThrownBy(() -> client.send(ThreadTopics.userThreads("client-2")))
+                .isInstanceOf(MessageDeliveryException.class);
+        assertThatThrownBy(() -> client.send(ClusterThreadStateRelay.DESTINATION))
+                .isInstanceOf(MessageDeliveryException.class);
+        assertThatThrownBy(() -> client.send("/user/client-2/queue/errors"))
+                .isInstanceOf(MessageDeliveryException.class);
+        assertThatThrownBy(() -> client.send(null))
+                .isInstanceOf(MessageDeliveryException.class);
+    }
+
+    private Session connect(String userId, String role) {
+        Map<String, Object> attributes = new HashMap<>();
+        Message<?> connect = interceptor.preSend(
+                frame(StompCommand.CONNECT, null, attributes, null, jwtService.generateToken(userId, userId + "@example.com", role)),
+                null);
+        Principal user = MessageHeaderAccessor.getAccessor(connect, StompHeaderAccessor.class).getUser();
+        assertThat(user).isNotNull();
+        return new Session(user, attributes);
+    }
+
+    static Message<byte[]> frame(
+            StompCommand command, String destination, Map<String, Object> attributes, Principal user, String token
+    ) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId("session-1");
+        accessor.setSessionAttributes(attributes);
+        accessor.setUser(user);
+        if (destination != null) {
+            accessor.setDestination(destination);
+        }
+        if (command == StompCommand.SUBSCRIBE) {
+            accessor.setSubscriptionId("sub-1");
+        }
+        if (token != null) {
+            accessor.setNativeHeader("Authorization", "Bearer " + token);
+        }
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    static SupportThread thread(String id, String createdBy, String assignee) {
+        SupportThread thread = new SupportThread();
+        thread.setId(id);
+        thread.setSubject("Subject");
+        thread.setStatus("OPEN");
+        thread.setCreatedAt(Instant.now());
+        thread.setCreatedByUserId(createdBy);
+        thread.setAssignedSupportUserId(assignee);
+        return thread;
+    }
+
+    private final class Session {
+
+        private final Principal user;
+        private final Map<String, Object> attributes;
+
+        Session(Principal user, Map<String, Object> attributes) {
+            this.user = user;
+            this.attributes = attributes;
+        }
+
+        boolean subscribe(String destination) {
+            return interceptor.preSend(frame(StompCommand.SUBSCRIBE, destination, attributes, user, null), null) != null;
+        }
+
+        Message<?> send(String destination) {
+            return send(destination, null);
+        }
+
+        Message<?> send(String destination, String token) {
+            return interceptor.preSend(frame(StompCommand.SEND, destination, attributes, user, token), null);
+        }
+
+        void expire() {
+            attributes.put(StompAuthChannelInterceptor.EXPIRES_AT_ATTRIBUTE, System.currentTimeMillis() - 1);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.ycwy.poc_chat.security;
+
+import com.ycwy.poc_chat.support.SupportMessageRepository;
+import com.ycwy.poc_chat.support.SupportThreadRepository;
+import com.ycwy.poc_chat.support.ThreadStateCache;
+import com.ycwy.poc_chat.support.ThreadStateChangedEvent;
+import com.ycwy.poc_chat.support.ThreadTopics;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.ycwy.poc_chat.security.StompAuthChannelInterceptorTests.thread;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ThreadSubscriptionRegistryTests {
+
+    private final List<Message<?>> sentToBroker = new ArrayList<>();
+    private final MessageHandler broker = new SimpleBrokerMessageHandler(
+            new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(), new ExecutorSubscribableChannel(),
+            List.of("/topic"));
+
+    private ThreadStateCache threadStateCache;
+    private ThreadSubscriptionRegistry registry;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ObjectProvider<MessageChannel> brokerChannel = mock(ObjectProvider.class);
+        when(brokerChannel.getObject()).thenReturn((message, timeout) -> sentToBroker.add(message));
+        threadStateCache = new ThreadStateCache(
+                mock(SupportThreadRepository.class), mock(SupportMessageRepository.class),
+                event -> registry.onThreadChanged((ThreadStateChangedEvent) event), 100);
+        registry = new ThreadSubscriptionRegistry(threadStateCache, brokerChannel);
+        threadStateCache.created(thread("thread-1", "client-1", "agent-1"));
+    }
+
+    @Test
+    void transferRevokesPreviousAgentSubscriptions() {
+        subscribe("agent-session", "sub-1", ThreadTopics.thread("thread-1"), user("agent-1", "SUPPORT"));
+        subscribe("agent-session", "sub-2", ThreadTopics.typing("thread-1"), user("agent-1", "SUPPORT"));
+        subscribe("client-session", "sub-1", ThreadTopics.thread("thread-1"), user("client-1", "CLIENT"));
+        assertThat(sentToBroker).isEmpty();
+
+        threadStateCache.updated(thread("thread-1", "client-1", "agent-2"));
+
+        assertThat(sentToBroker).hasSize(2).allSatisfy(message -> {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+            assertThat(accessor.getCommand()).isEqualTo(StompCommand.UNSUBSCRIBE);
+            assertThat(accessor.getSessionId()).isEqualTo("agent-session");
+        });
+        assertThat(sentToBroker).extracting(message -> StompHeaderAccessor.wrap(message).getSubscriptionId())
+                .containsExactlyInAnyOrder("sub-1", "sub-2");
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    @Test
+    void subscriptionAlreadyRefusedWhenHandledIsRevoked() {
+        // Allowed at SUBSCRIBE, transferred before the broker registered it.
+        threadStateCache.updated(thread("thread-1", "client-1", "agent-2"));
+
+        subscribe("agent-session", "sub-1", ThreadTopics.thread("thread-1"), user("agent-1", "SUPPORT"));
+
+        assertThat(sentToBroker).hasSize(1);
+        assertThat(registry.size()).isZero();
+    }
+
+    @Test
+    void unsubscribeAndDisconnectForgetSubscriptions() {
+        subscribe("session-1", "sub-1", ThreadTopics.thread("thread-1"), user("agent-1", "SUPPORT"));
+        subscribe("session-1", "sub-2", ThreadTopics.typing("thread-1"), user("agent-1", "SUPPORT"));
+        subscribe("session-2", "sub-1", ThreadTopics.thread("thread-1"), user("client-1", "CLIENT"));
+
+        registry.preSend(frame(StompCommand.UNSUBSCRIBE, "session-1", "sub-1", null, null), null);
+        assertThat(registry.size()).isEqualTo(2);
+        registry.preSend(frame(StompCommand.DISCONNECT, "session-1", null, null, null), null);
+        assertThat(registry.size()).isEqualTo(1);
+
+        threadStateCache.updated(thread("thread-1", "client-1", "agent-2"));
+        assertThat(sentToBroker).isEmpty();
+    }
+
+    @Test
+    void onlyBrokerHandledThreadSubscriptionsAreTracked() {
+        Principal agent = user("agent-1", "SUPPORT");
+        registry.afterMessageHandled(frame(StompCommand.SUBSCRIBE, "session-1", "sub-1",
+                ThreadTopics.thread("thread-1"), agent), null, message -> {
+        }, null);
+        subscribe("session-1", "sub-2", ThreadTopics.UNASSIGNED, agent);
+
+        assertThat(registry.size()).isZero();
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination, Principal user) {
+        registry.afterMessageHandled(frame(StompCommand.SUBSCRIBE, sessionId, subscriptionId, destination, user),
+                null, broker, null);
+    }
+
+    private static Message<byte[]> frame(
+            StompCommand command, String sessionId, String subscriptionId, String destination, Principal user
+    ) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setUser(user);
+        accessor.setSessionAttributes(new HashMap<>());
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Principal user(String userId, String role) {
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken(userId + "@example.com", null, List.of());
+        authentication.setDetails(Jwts.claims(Map.of("uid", userId, "role", role)));
+        return authentication;
+    }
+}
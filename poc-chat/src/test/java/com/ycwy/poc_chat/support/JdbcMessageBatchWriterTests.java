@@ -0,0 +1,127 @@
+package com.ycwy.poc_chat.support;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JdbcMessageBatchWriterTests {
+
+    private static final String INSERT = "insert into support_messages";
+    private static final String EXISTS = "select count(*) from support_messages";
+
+    private JdbcTemplate jdbcTemplate;
+    private ThreadStateCache threadStateCache;
+    private ApplicationEventPublisher eventPublisher;
+    private JdbcMessageBatchWriter writer;
+
+    // Seqs of the inserts the database accepted, and seqs already taken by another node.
+    private final List<Long> stored = new ArrayList<>();
+    private final List<Long> taken = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        threadStateCache = mock(ThreadStateCache.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        writer = new JdbcMessageBatchWriter(jdbcTemplate, threadStateCache, eventPublisher);
+        doAnswer(invocation -> {
+            long seq = invocation.getArgument(3);
+            if (taken.contains(seq)) {
+                throw new DuplicateKeyException("uq_msg_thread_seq");
+            }
+            stored.add(seq);
+            return 1;
+        }).when(jdbcTemplate).update(startsWith(INSERT), any(Object[].class));
+        when(jdbcTemplate.queryForObject(startsWith(EXISTS), eq(Integer.class), any(Object[].class))).thenReturn(0);
+    }
+
+    @Test
+    void storesSingleMessageUnderItsSeq() {
+        writer.write(List.of(message("m1", 4)));
+
+        assertThat(stored).containsExactly(4L);
+        verify(threadStateCache, never()).resyncSeq(any());
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+    }
+
+    @Test
+    void seqTakenByAnotherNodeIsReassignedAndCorrected() {
+        taken.add(4L);
+        when(threadStateCache.nextSeq("thread-1")).thenReturn(6L);
+        SupportMessage message = message("m1", 4);
+
+        writer.write(List.of(message));
+
+        assertThat(stored).containsExactly(6L);
+        assertThat(message.getSeq()).isEqualTo(6L);
+        verify(threadStateCache).resyncSeq("thread-1");
+        verify(eventPublisher).publishEvent(new MessageSeqReassignedEvent(message, 4));
+    }
+
+    @Test
+    void messageWrittenByAnEarlierAttemptIsNotStoredTwice() {
+        taken.add(4L);
+        when(jdbcTemplate.queryForObject(startsWith(EXISTS), eq(Integer.class), any(Object[].class))).thenReturn(1);
+
+        writer.write(List.of(message("m1", 4)));
+
+        assertThat(stored).isEmpty();
+        verify(threadStateCache, never()).resyncSeq(any());
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+        verify(jdbcTemplate, never()).batchUpdate(any(String.class), any(BatchPreparedStatementSetter.class));
+    }
+
+    @Test
+    void givesUpAfterRepeatedCollisions() {
+        taken.addAll(List.of(4L, 5L, 6L));
+        when(threadStateCache.nextSeq("thread-1")).thenReturn(5L, 6L);
+
+        assertThatThrownBy(() -> writer.write(List.of(message("m1", 4))))
+                .isInstanceOf(DuplicateKeyException.class);
+        verify(threadStateCache, times(2)).resyncSeq("thread-1");
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+    }
+
+    @Test
+    void batchCollisionIsLeftToTheWriteBehind() {
+        when(jdbcTemplate.batchUpdate(startsWith(INSERT), anyList(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenThrow(new DuplicateKeyException("uq_msg_thread_seq"));
+
+        assertThatThrownBy(() -> writer.write(List.of(message("m1", 4), message("m2", 5))))
+                .isInstanceOf(DuplicateKeyException.class);
+        verify(threadStateCache, never()).nextSeq(any());
+    }
+
+    private static SupportMessage message(String id, long seq) {
+        SupportMessage message = new SupportMessage();
+        message.setId(id);
+        message.setSeq(seq);
+        message.setSentAt(Instant.now());
+        message.setContent("Bonjour");
+        message.setThreadId("thread-1");
+        message.setSenderUserId("user-1");
+        return message;
+    }
+}
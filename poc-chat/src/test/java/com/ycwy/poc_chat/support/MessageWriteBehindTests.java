@@ -0,0 +1,187 @@
+package com.ycwy.poc_chat.support;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageWriteBehindTests {
+
+    private MessageWriteBehind writeBehind;
+
+    @AfterEach
+    void tearDown() {
+        if (writeBehind != null) {
+            writeBehind.stop();
+        }
+    }
+
+    @Test
+    void flushesWhenBatchIsFull() {
+        RecordingWriter writer = new RecordingWriter();
+        writeBehind = start(writer, 100, 3, 60_000);
+
+        offer(3);
+
+        writer.awaitWritten(3);
+        assertThat(writer.batches).containsExactly(3);
+    }
+
+    @Test
+    void flushesPartialBatchAfterInterval() {
+        RecordingWriter writer = new RecordingWriter();
+        writeBehind = start(writer, 100, 100, 50);
+
+        offer(2);
+
+        writer.awaitWritten(2);
+        assertThat(writeBehind.writtenCount()).isEqualTo(2);
+    }
+
+    @Test
+    void retriesFailedBatch() {
+        AtomicInteger failures = new AtomicInteger(2);
+        RecordingWriter writer = new RecordingWriter(batch -> failures.getAndDecrement() > 0);
+        writeBehind = start(writer, 100, 10, 20);
+
+        offer(5);
+
+        writer.awaitWritten(5);
+        assertThat(writeBehind.retryCount()).isEqualTo(2);
+        assertThat(writeBehind.failedCount()).isZero();
+    }
+
+    @Test
+    void isolatesRowThatKeepsFailing() {
+        RecordingWriter writer = new RecordingWriter(batch -> batch.stream()
+                .anyMatch(message -> message.getContent().equals("poison")));
+        writeBehind = start(writer, 100, 10, 200);
+
+        writeBehind.offer(message("ok-1"));
+        writeBehind.offer(message("poison"));
+        writeBehind.offer(message("ok-2"));
+
+        writer.awaitWritten(2);
+        awaitUntil(() -> writeBehind.failedCount() == 1);
+        assertThat(writer.contents()).containsExactlyInAnyOrder("ok-1", "ok-2");
+    }
+
+    @Test
+    void duplicateKeyGoesRowByRowWithoutRetrying() {
+        RecordingWriter writer = new RecordingWriter(batch -> batch.size() > 1, () -> new DuplicateKeyException("uq_msg_thread_seq"));
+        writeBehind = start(writer, 100, 10, 200);
+
+        offer(3);
+
+        writer.awaitWritten(3);
+        assertThat(writer.batches).containsExactly(1, 1, 1);
+        assertThat(writeBehind.retryCount()).isZero();
+        assertThat(writeBehind.failedCount()).isZero();
+    }
+
+    @Test
+    void flushesQueuedMessagesOnShutdown() {
+        RecordingWriter writer = new RecordingWriter();
+        writeBehind = start(writer, 1_000, 1_000, 60_000);
+
+        offer(250);
+        writeBehind.stop();
+
+        assertThat(writer.contents()).hasSize(250);
+        assertThat(writeBehind.queueDepth()).isZero();
+        assertThat(writeBehind.offer(message("late"))).isFalse();
+    }
+
+    @Test
+    void rejectsWhenQueueStaysFull() {
+        // Flusher not started: nothing drains the queue.
+        writeBehind = new MessageWriteBehind(new RecordingWriter(), 2, 10, 50, 10, 0, 1, 1_000);
+
+        assertThat(writeBehind.offer(message("a"))).isTrue();
+        assertThat(writeBehind.offer(message("b"))).isTrue();
+        assertThat(writeBehind.offer(message("c"))).isFalse();
+        assertThat(writeBehind.rejectedCount()).isEqualTo(1);
+        writeBehind = null;
+    }
+
+    private MessageWriteBehind start(RecordingWriter writer, int capacity, int batchSize, long flushIntervalMillis) {
+        MessageWriteBehind pipeline = new MessageWriteBehind(
+                writer, capacity, batchSize, flushIntervalMillis, 100, 5, 1, 5_000);
+        pipeline.start();
+        return pipeline;
+    }
+
+    private void offer(int count) {
+        for (int i = 0; i < count; i++) {
+            assertThat(writeBehind.offer(message("message-" + i))).isTrue();
+        }
+    }
+
+    private static SupportMessage message(String content) {
+        SupportMessage message = new SupportMessage();
+        message.setId(UUID.randomUUID().toString());
+        message.setSentAt(Instant.now());
+        message.setContent(content);
+        message.setThreadId("thread-1");
+        message.setSenderUserId("user-1");
+        return message;
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met in time");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static final class RecordingWriter implements MessageBatchWriter {
+
+        private final Predicate<List<SupportMessage>> fail;
+        private final Supplier<RuntimeException> failure;
+        private final List<SupportMessage> written = new ArrayList<>();
+        private final List<Integer> batches = new ArrayList<>();
+
+        RecordingWriter() {
+            this(batch -> false);
+        }
+
+        RecordingWriter(Predicate<List<SupportMessage>> fail) {
+            this(fail, () -> new IllegalStateException("simulated failure"));
+        }
+
+        RecordingWriter(Predicate<List<SupportMessage>> fail, Supplier<RuntimeException> failure) {
+            this.fail = fail;
+            this.failure = failure;
+        }
+
+        @Override
+        public synchronized void write(List<SupportMessage> batch) {
+            if (fail.test(batch)) {
+                throw failure.get();
+            }
+            written.addAll(batch);
+            batches.add(batch.size());
+        }
+
+        synchronized List<String> contents() {
+            return written.stream().map(SupportMessage::getContent).toList();
+        }
+
+        void awaitWritten(int count) {
+            awaitUntil(() -> contents().size() >= count);
+        }
+    }
+}